@@ -0,0 +1,119 @@
+package progsmod.data.combat;
+
+/** Times [ContributionCalculator] on synthetic engagements of several fleet sizes, without the game.
+ *  Run with the mod's classes on the classpath:
+ *    java progsmod.data.combat.ContributionBenchmark [fleet sizes...]
+ *  Each fleet size n is an n vs n combat of [DURATION] seconds. Reports the time spent recording damage
+ *  and at the end of each combat update interval, along with how many enemy/player pairs each interval
+ *  visits compared to the n * n a full scan of the damage tables would. */
+public final class ContributionBenchmark {
+
+    private static final int[] DEFAULT_FLEET_SIZES = {10, 50, 150};
+    private static final float DURATION = 180f;
+    private static final float INTERVAL = 3f;
+    /** Untimed runs before the timed ones, to let the JIT settle */
+    private static final int WARMUP_RUNS = 5;
+    private static final int TIMED_RUNS = 10;
+
+    private ContributionBenchmark() {}
+
+    public static void main(String[] args) {
+        int[] fleetSizes = DEFAULT_FLEET_SIZES;
+        if (args.length > 0) {
+            fleetSizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                fleetSizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int n : fleetSizes) {
+            System.out.println(run(new SyntheticEngagement(n, n, DURATION, n)));
+        }
+    }
+
+    /** Runs [engagement] through a fresh calculator several times and returns a summary of the fastest run. */
+    static Result run(SyntheticEngagement engagement) {
+        Result best = null;
+        for (int i = 0; i < WARMUP_RUNS + TIMED_RUNS; i++) {
+            Result result = runOnce(engagement);
+            if (i >= WARMUP_RUNS && (best == null || result.totalNanos() < best.totalNanos())) {
+                best = result;
+            }
+        }
+        return best;
+    }
+
+    private static Result runOnce(SyntheticEngagement engagement) {
+        Result result = new Result(engagement);
+        ContributionCalculator calculator = new ContributionCalculator();
+        calculator.ensureCapacity(engagement.nEnemies, engagement.nPlayers);
+        for (int i = 0; i < engagement.nPlayers; i++) {
+            calculator.addPlayer("player" + i);
+        }
+        for (int i = 0; i < engagement.nEnemies; i++) {
+            calculator.addEnemy("enemy" + i);
+        }
+        float nextUpdateTime = INTERVAL;
+        int i = 0;
+        while (i < engagement.eventCount) {
+            // Damage events up to the end of the interval
+            long start = System.nanoTime();
+            int end = i;
+            while (end < engagement.eventCount && engagement.time[end] < nextUpdateTime) {
+                if (engagement.dealtByPlayer[end]) {
+                    calculator.addReceivedByEnemy(engagement.enemy[end], engagement.player[end],
+                            engagement.hull[end], engagement.armor[end], engagement.shields[end]);
+                }
+                else {
+                    calculator.addDealtByEnemy(engagement.enemy[end], engagement.player[end],
+                            engagement.hull[end], engagement.armor[end], engagement.shields[end]);
+                }
+                end++;
+            }
+            result.damageNanos += System.nanoTime() - start;
+            i = end;
+            result.pairsVisited += calculator.getEngagedPairCount();
+            // The end of the interval
+            start = System.nanoTime();
+            calculator.endInterval(1f);
+            calculator.process(Integer.MAX_VALUE);
+            result.intervalNanos += System.nanoTime() - start;
+            result.intervals++;
+            nextUpdateTime += INTERVAL;
+        }
+        long start = System.nanoTime();
+        calculator.finish();
+        result.intervalNanos += System.nanoTime() - start;
+        result.allocations = calculator.getAllocations();
+        return result;
+    }
+
+    static final class Result {
+        private final SyntheticEngagement engagement;
+        private long damageNanos, intervalNanos, pairsVisited;
+        private int intervals, allocations;
+
+        private Result(SyntheticEngagement engagement) {
+            this.engagement = engagement;
+        }
+
+        long totalNanos() {
+            return damageNanos + intervalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d vs %d: %d damage events, %d intervals, %.1f ns per damage event, " +
+                    "%.3f ms per interval update, %.1f pairs visited per interval out of %d, %d allocations",
+                    engagement.nPlayers,
+                    engagement.nEnemies,
+                    engagement.eventCount,
+                    intervals,
+                    engagement.eventCount == 0 ? 0.0 : (double) damageNanos / engagement.eventCount,
+                    intervals == 0 ? 0.0 : intervalNanos / 1e6 / intervals,
+                    intervals == 0 ? 0.0 : (double) pairsVisited / intervals,
+                    engagement.nPlayers * engagement.nEnemies,
+                    allocations);
+        }
+    }
+}
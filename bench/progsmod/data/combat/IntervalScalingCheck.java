@@ -0,0 +1,57 @@
+package progsmod.data.combat;
+
+import java.io.IOException;
+
+/** Checks that the adaptive combat update interval doesn't change how combat XP is split between
+ *  player ships by more than [TOLERANCE], outside the game. Run with the mod's classes on the classpath:
+ *    java progsmod.data.combat.IntervalScalingCheck [fleet sizes...]
+ *  For each fleet size n, records [SEEDS] different synthetic n vs n combats with the interval that the
+ *  adaptive setting would pick for them, then replays each recording with those intervals and with the
+ *  normal interval. Exits with an error if any player ship's share of the XP in any of them differs by
+ *  more than [TOLERANCE] of its share with the normal interval. */
+public final class IntervalScalingCheck {
+
+    private static final int[] DEFAULT_FLEET_SIZES = {4, 10, 50, 150};
+    /** Number of different combats to check for each fleet size */
+    private static final int SEEDS = 10;
+    private static final float DURATION = 180f;
+    /** Defaults of combatUpdateInterval, combatUpdateIntervalMin and combatUpdateIntervalMax */
+    private static final float INTERVAL = 3f, INTERVAL_MIN = 1.5f, INTERVAL_MAX = 8f;
+    /** Defaults of xpFractionAttack, xpFractionDefense and xpFractionSupport */
+    private static final float[] TYPE_FRACTIONS = {0.34f, 0.33f, 0.33f};
+    /** Largest allowed difference in a ship's share of the XP, as a fraction of that ship's share
+     *  with the normal interval */
+    static final float TOLERANCE = 0.15f;
+
+    private IntervalScalingCheck() {}
+
+    public static void main(String[] args) throws IOException {
+        int[] fleetSizes = DEFAULT_FLEET_SIZES;
+        if (args.length > 0) {
+            fleetSizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                fleetSizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        boolean passed = true;
+        for (int n : fleetSizes) {
+            float interval = 0f, worst = 0f, total = 0f;
+            for (int seed = 0; seed < SEEDS; seed++) {
+                SyntheticEngagement engagement = new SyntheticEngagement(n, n, DURATION, 1000L * n + seed);
+                interval = engagement.adaptiveInterval(INTERVAL, INTERVAL_MIN, INTERVAL_MAX);
+                String recording = engagement.record(INTERVAL, interval);
+                float difference = ContributionReplay.getMaxRelativeXPShareDifference(recording, TYPE_FRACTIONS);
+                worst = Math.max(worst, difference);
+                total += difference;
+            }
+            boolean ok = worst <= TOLERANCE;
+            passed &= ok;
+            System.out.println(String.format(
+                    "%d vs %d: interval %.2f s, largest XP share difference over %d combats %.1f%% (mean %.1f%%) (%s)",
+                    n, n, interval, SEEDS, 100f * worst, 100f * total / SEEDS, ok ? "ok" : "over " + TOLERANCE));
+        }
+        if (!passed) {
+            throw new AssertionError("XP shares differ by more than " + TOLERANCE + " with the adaptive interval");
+        }
+    }
+}
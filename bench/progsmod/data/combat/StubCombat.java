@@ -0,0 +1,316 @@
+package progsmod.data.combat;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fs.starfarer.api.combat.CombatEngineAPI;
+import com.fs.starfarer.api.combat.CombatFleetManagerAPI;
+import com.fs.starfarer.api.combat.DeployedFleetMemberAPI;
+import com.fs.starfarer.api.combat.FighterWingAPI;
+import com.fs.starfarer.api.combat.ShipAPI;
+import com.fs.starfarer.api.combat.ShipHullSpecAPI;
+import com.fs.starfarer.api.combat.ShipwideAIFlags;
+import com.fs.starfarer.api.combat.listeners.ApplyDamageResultAPI;
+import com.fs.starfarer.api.fleet.FleetMemberAPI;
+import com.fs.starfarer.api.mission.FleetSide;
+
+/** Stand-ins for the combat engine, its fleet managers, ships, wings and damage results, for driving
+ *  [ContributionTracker] outside the game. Each is a dynamic proxy that only answers what the tracker
+ *  asks for; anything else returns null, 0 or false. Going through a proxy costs every call the tracker
+ *  makes on them some time, the same before and after any change to the tracker. */
+final class StubCombat {
+
+    /** Number of times the tracker asked a ship for its AI flags while [handlingDamage] was set */
+    static long aiFlagProbesDuringDamage = 0;
+    /** Set by the harness while it's passing damage events to the tracker */
+    static boolean handlingDamage = false;
+
+    final CombatEngineAPI engine;
+    private final List<DeployedFleetMemberAPI> playerDeployed = new ArrayList<>();
+    private final List<DeployedFleetMemberAPI> enemyDeployed = new ArrayList<>();
+    private boolean combatOver = false;
+    private int nextId = 0;
+
+    StubCombat() {
+        final CombatFleetManagerAPI playerManager = proxy(CombatFleetManagerAPI.class, new FleetManager(playerDeployed));
+        final CombatFleetManagerAPI enemyManager = proxy(CombatFleetManagerAPI.class, new FleetManager(enemyDeployed));
+        engine = proxy(CombatEngineAPI.class, new Stub() {
+            @Override
+            Object answer(String name, Object[] args) {
+                switch (name) {
+                    case "isCombatOver": return combatOver;
+                    case "getFleetManager": return args[0] == FleetSide.PLAYER ? playerManager : enemyManager;
+                    case "isEntityInPlay": return args[0] instanceof ShipAPI && ((Ship) handler(args[0])).alive;
+                    default: return null;
+                }
+            }
+        });
+    }
+
+    void endCombat() {
+        combatOver = true;
+    }
+
+    /** Makes a ship, fighter, drone or module that belongs to [owner]: 0 for the player, 1 for the enemy. */
+    Ship newShip(int owner, String hullId) {
+        return new Ship("ship" + nextId++, owner, hullId);
+    }
+
+    /** Makes a base ship with a fleet member and adds it to [owner]'s deployed ships. */
+    Ship deploy(int owner, String hullId) {
+        final Ship ship = newShip(owner, hullId);
+        ship.fleetMember = proxy(FleetMemberAPI.class, new Stub() {
+            @Override
+            Object answer(String name, Object[] args) {
+                return "getId".equals(name) ? "member_" + ship.id : null;
+            }
+        });
+        (owner == 0 ? playerDeployed : enemyDeployed).add(proxy(DeployedFleetMemberAPI.class, new Stub() {
+            @Override
+            Object answer(String name, Object[] args) {
+                return "getShip".equals(name) ? ship.api : null;
+            }
+        }));
+        return ship;
+    }
+
+    /** Gives [carrier] a wing of [size] fighters and returns it. */
+    Wing addWing(Ship carrier, int size, String hullId) {
+        Wing wing = new Wing(carrier);
+        for (int i = 0; i < size; i++) {
+            wing.members.add(newFighter(wing, i, hullId).api);
+        }
+        carrier.wings.add(wing.api);
+        carrier.fighterBays++;
+        return wing;
+    }
+
+    /** Makes a fighter for slot [slot] of [wing], without putting it in the wing. */
+    Ship newFighter(Wing wing, int slot, String hullId) {
+        Ship fighter = newShip(wing.source.owner, hullId);
+        fighter.fighter = true;
+        fighter.wing = wing;
+        fighter.container = wing.members;
+        fighter.slot = slot;
+        return fighter;
+    }
+
+    /** Gives [mothership] [count] drones. */
+    void addDrones(Ship mothership, int count, String hullId) {
+        mothership.drones = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            mothership.drones.add(newDrone(mothership, i, hullId).api);
+        }
+    }
+
+    /** Makes a drone for slot [slot] of [mothership]'s drones, without putting it there. */
+    Ship newDrone(Ship mothership, int slot, String hullId) {
+        Ship drone = newShip(mothership.owner, hullId);
+        drone.fighter = true;
+        drone.mothership = mothership;
+        drone.aiFlags.setFlag(ShipwideAIFlags.AIFlags.DRONE_MOTHERSHIP, Float.MAX_VALUE, mothership.api);
+        drone.container = mothership.drones;
+        drone.slot = slot;
+        return drone;
+    }
+
+    /** Gives [station] a module and returns it. */
+    Ship addModule(Ship station, String hullId) {
+        Ship module = newShip(station.owner, hullId);
+        module.stationModule = true;
+        module.parentStation = station.api;
+        station.modules.add(module.api);
+        return module;
+    }
+
+    /** Makes a craft to take [craft]'s place once it's lost; see [replace]. */
+    Ship newReplacement(Ship craft) {
+        return craft.wing != null
+                ? newFighter(craft.wing, craft.slot, craft.hullId)
+                : newDrone(craft.mothership, craft.slot, craft.hullId);
+    }
+
+    /** Takes [craft] out of play and puts [replacement] in its slot, as when a carrier replaces a lost fighter. */
+    static void replace(Ship craft, Ship replacement) {
+        craft.alive = false;
+        replacement.container.set(replacement.slot, replacement.api);
+    }
+
+    static Object handler(Object proxy) {
+        return Proxy.getInvocationHandler(proxy);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubCombat.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    /** Answers the calls that [answer] knows about, and Object's methods by identity. */
+    abstract static class Stub implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "equals": return proxy == args[0];
+                case "hashCode": return System.identityHashCode(proxy);
+                case "toString": return getClass().getSimpleName() + "@" + System.identityHashCode(proxy);
+                default: break;
+            }
+            Object result = answer(method.getName(), args);
+            return result != null ? result : defaultValue(method.getReturnType());
+        }
+
+        /** Returns the answer to the call to [name], or null to use the default for its return type. */
+        abstract Object answer(String name, Object[] args);
+
+        private static Object defaultValue(Class<?> type) {
+            if (!type.isPrimitive() || type == void.class) {
+                return null;
+            }
+            if (type == boolean.class) {
+                return false;
+            }
+            if (type == float.class) {
+                return 0f;
+            }
+            if (type == double.class) {
+                return 0.0;
+            }
+            if (type == long.class) {
+                return 0L;
+            }
+            if (type == char.class) {
+                return '\0';
+            }
+            if (type == byte.class) {
+                return (byte) 0;
+            }
+            if (type == short.class) {
+                return (short) 0;
+            }
+            return 0;
+        }
+    }
+
+    final class Ship extends Stub {
+        final ShipAPI api = proxy(ShipAPI.class, this);
+        final String id;
+        final int owner;
+        private final String hullId;
+        private final ShipHullSpecAPI spec;
+        boolean alive = true;
+        private boolean fighter = false, stationModule = false;
+        private FleetMemberAPI fleetMember;
+        private ShipAPI parentStation;
+        private Wing wing;
+        private Ship mothership;
+        private final ShipwideAIFlags aiFlags = new ShipwideAIFlags();
+        private final List<ShipAPI> modules = new ArrayList<>();
+        private final List<FighterWingAPI> wings = new ArrayList<>();
+        private List<ShipAPI> drones;
+        private int fighterBays = 0;
+        /** For fighters and drones, the wing or drone list they're in and their place in it */
+        private List<ShipAPI> container;
+        private int slot;
+
+        private Ship(String id, int owner, final String hullId) {
+            this.id = id;
+            this.owner = owner;
+            this.hullId = hullId;
+            spec = proxy(ShipHullSpecAPI.class, new Stub() {
+                @Override
+                Object answer(String name, Object[] args) {
+                    return "getHullId".equals(name) || "getBaseHullId".equals(name) ? hullId : null;
+                }
+            });
+        }
+
+        /** Whether this is a fighter or drone, which a carrier replaces once it's lost */
+        boolean isCraft() {
+            return container != null;
+        }
+
+        @Override
+        Object answer(String name, Object[] args) {
+            switch (name) {
+                case "getId": return id;
+                case "getOwner": return owner;
+                case "getHullSpec": return spec;
+                case "isAlive": return alive;
+                case "isFighter": return fighter;
+                case "isStationModule": return stationModule;
+                case "getParentStation": return parentStation;
+                case "getFleetMember": return fleetMember;
+                case "getFleetMemberId": return fleetMember == null ? null : fleetMember.getId();
+                case "getWing": return wing == null ? null : wing.api;
+                case "getAIFlags":
+                    if (handlingDamage) {
+                        aiFlagProbesDuringDamage++;
+                    }
+                    return aiFlags;
+                case "getChildModulesCopy": return new ArrayList<>(modules);
+                case "getAllWings": return wings;
+                case "getDeployedDrones": return drones;
+                case "getNumFighterBays": return fighterBays;
+                default: return null;
+            }
+        }
+    }
+
+    final class Wing extends Stub {
+        final FighterWingAPI api = proxy(FighterWingAPI.class, this);
+        private final Ship source;
+        final List<ShipAPI> members = new ArrayList<>();
+
+        private Wing(Ship source) {
+            this.source = source;
+        }
+
+        @Override
+        Object answer(String name, Object[] args) {
+            switch (name) {
+                case "getSourceShip": return source.api;
+                case "getWingMembers": return members;
+                default: return null;
+            }
+        }
+    }
+
+    private static final class FleetManager extends Stub {
+        private final List<DeployedFleetMemberAPI> deployed;
+
+        private FleetManager(List<DeployedFleetMemberAPI> deployed) {
+            this.deployed = deployed;
+        }
+
+        @Override
+        Object answer(String name, Object[] args) {
+            switch (name) {
+                case "getAllEverDeployedCopy":
+                case "getDeployedCopy":
+                    return new ArrayList<>(deployed);
+                case "getReservesCopy": return Collections.emptyList();
+                default: return null;
+            }
+        }
+    }
+
+    /** A damage result whose amounts can be set before each damage event */
+    static final class Damage extends Stub {
+        final ApplyDamageResultAPI api = proxy(ApplyDamageResultAPI.class, this);
+        float hull, armor, shields;
+
+        @Override
+        Object answer(String name, Object[] args) {
+            switch (name) {
+                case "getDamageToHull": return hull;
+                case "getTotalDamageToArmor": return armor;
+                case "getDamageToShields": return shields;
+                default: return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package progsmod.data.combat;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/** Randomly generated damage events for an [nPlayers] vs [nEnemies] combat, for exercising
+ *  [ContributionCalculator] without the combat engine. Ships fight in small groups: each
+ *  player ship trades fire with a few nearby enemies, picking new ones every so often, the
+ *  way ships pair off in an actual battle. The same seed always gives the same events. */
+final class SyntheticEngagement {
+
+    /** Seconds per simulated frame */
+    private static final float FRAME = 1f / 30f;
+    /** Number of enemies each player ship is engaged with at a time */
+    private static final int TARGETS_PER_SHIP = 3;
+    /** How often ships pick new targets, in seconds */
+    private static final float RETARGET_INTERVAL = 20f;
+    /** Average hits per second dealt by each ship to each of its targets */
+    private static final float HITS_PER_SECOND = 1.5f;
+
+    final int nPlayers, nEnemies;
+    final float duration;
+    int eventCount = 0;
+    float[] time = new float[1024];
+    boolean[] dealtByPlayer = new boolean[1024];
+    int[] enemy = new int[1024], player = new int[1024];
+    float[] hull = new float[1024], armor = new float[1024], shields = new float[1024];
+
+    SyntheticEngagement(int nPlayers, int nEnemies, float duration, long seed) {
+        this.nPlayers = nPlayers;
+        this.nEnemies = nEnemies;
+        this.duration = duration;
+        Random random = new Random(seed);
+        int[][] targets = new int[nPlayers][TARGETS_PER_SHIP];
+        float nextRetarget = 0f;
+        float hitChance = HITS_PER_SECOND * FRAME;
+        for (float t = 0f; t < duration; t += FRAME) {
+            if (t >= nextRetarget) {
+                for (int p = 0; p < nPlayers; p++) {
+                    // Enemies "near" a player ship are the ones with similar indices
+                    int center = p * nEnemies / nPlayers;
+                    for (int k = 0; k < TARGETS_PER_SHIP; k++) {
+                        int offset = random.nextInt(2 * TARGETS_PER_SHIP + 1) - TARGETS_PER_SHIP;
+                        targets[p][k] = Math.max(0, Math.min(nEnemies - 1, center + offset));
+                    }
+                }
+                nextRetarget += RETARGET_INTERVAL;
+            }
+            for (int p = 0; p < nPlayers; p++) {
+                for (int k = 0; k < TARGETS_PER_SHIP; k++) {
+                    int e = targets[p][k];
+                    if (random.nextFloat() < hitChance) {
+                        add(t, true, e, p, random);
+                    }
+                    if (random.nextFloat() < hitChance) {
+                        add(t, false, e, p, random);
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(float t, boolean byPlayer, int e, int p, Random random) {
+        if (eventCount == time.length) {
+            int capacity = 2 * time.length;
+            time = Arrays.copyOf(time, capacity);
+            dealtByPlayer = Arrays.copyOf(dealtByPlayer, capacity);
+            enemy = Arrays.copyOf(enemy, capacity);
+            player = Arrays.copyOf(player, capacity);
+            hull = Arrays.copyOf(hull, capacity);
+            armor = Arrays.copyOf(armor, capacity);
+            shields = Arrays.copyOf(shields, capacity);
+        }
+        // Mostly shield hits, with the occasional burst of armor and hull damage
+        boolean shieldHit = random.nextFloat() < 0.6f;
+        float amount = 50f + 450f * random.nextFloat() * random.nextFloat();
+        time[eventCount] = t;
+        dealtByPlayer[eventCount] = byPlayer;
+        enemy[eventCount] = e;
+        player[eventCount] = p;
+        shields[eventCount] = shieldHit ? amount : 0f;
+        armor[eventCount] = shieldHit ? 0f : 0.6f * amount;
+        hull[eventCount] = shieldHit ? 0f : 0.4f * amount;
+        eventCount++;
+    }
+
+    /** Returns the interval that [ContributionTracker] would pick for this combat, given its base,
+     *  minimum and maximum intervals, if the adaptive interval is enabled. Every ship stays in play,
+     *  so it doesn't change over the combat. */
+    float adaptiveInterval(float base, float min, float max) {
+        float pairs = (float) nPlayers * nEnemies;
+        float interval = base * (float) Math.sqrt(pairs / 100f);
+        return Math.max(min, Math.min(max, interval));
+    }
+
+    /** Writes the combat as a [CombatRecorder] log, with the combat update interval ending every
+     *  [interval] seconds, which is [interval] / [baseInterval] times the normal length. */
+    String record(float baseInterval, float interval) {
+        CombatRecorder recorder = new CombatRecorder(baseInterval);
+        for (int p = 0; p < nPlayers; p++) {
+            recorder.recordShip(true, "player" + p, "synthetic");
+        }
+        for (int e = 0; e < nEnemies; e++) {
+            recorder.recordShip(false, "enemy" + e, "synthetic");
+        }
+        float scale = interval / baseInterval;
+        float lastUpdateTime = 0f;
+        for (int i = 0; i < eventCount; i++) {
+            while (time[i] - lastUpdateTime >= interval) {
+                lastUpdateTime += interval;
+                recorder.recordInterval(lastUpdateTime, scale);
+            }
+            if (dealtByPlayer[i]) {
+                recorder.recordDamage(time[i], true, player[i], 0, false, enemy[i], 1,
+                        hull[i], armor[i], shields[i]);
+            }
+            else {
+                recorder.recordDamage(time[i], false, enemy[i], 1, true, player[i], 0,
+                        hull[i], armor[i], shields[i]);
+            }
+        }
+        return recorder.finish(duration);
+    }
+}
@@ -0,0 +1,177 @@
+package progsmod.data.combat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.fs.starfarer.api.combat.ShipAPI;
+
+import progsmod.data.combat.StubCombat.Ship;
+
+/** A randomly generated battle between [StubCombat] ships for [TrackerBenchmark]: every damage event in it
+ *  and every fighter or drone that gets replaced, frame by frame. Every unit, whether a ship, fighter, drone
+ *  or module, fires at one enemy unit at a time and picks a new one every so often. The same seed always
+ *  gives the same battle; a battle can only be run once, since running it changes its ships. */
+final class TrackerBattle {
+
+    /** Seconds per frame */
+    static final float FRAME = 1f / 60f;
+    private static final float DURATION = 120f;
+    /** How often units pick new targets, in seconds */
+    private static final float RETARGET_INTERVAL = 10f;
+    /** Average hits per second dealt by each unit */
+    private static final float HITS_PER_SECOND = 1.5f;
+    /** Average seconds before a fighter or drone is lost and replaced */
+    private static final float CRAFT_LIFETIME = 30f;
+
+    final String name;
+    final StubCombat combat = new StubCombat();
+    final int frames = (int) (DURATION / FRAME);
+
+    int eventCount = 0;
+    int[] eventFrame = new int[1024];
+    ShipAPI[] source = new ShipAPI[1024], target = new ShipAPI[1024];
+    float[] hull = new float[1024], armor = new float[1024], shields = new float[1024];
+    /** Craft that are lost, their replacements, and the frame it happens at, in order */
+    final List<Ship> lost = new ArrayList<>(), replacements = new ArrayList<>();
+    final List<Integer> replacementFrame = new ArrayList<>();
+
+    /** Units on each side that fire and get fired at */
+    @SuppressWarnings("unchecked")
+    private final List<Ship>[] units = new List[] {new ArrayList<Ship>(), new ArrayList<Ship>()};
+
+    private TrackerBattle(String name) {
+        this.name = name;
+    }
+
+    /** 80 vs 80 frigates, with no fighters, drones or modules */
+    static TrackerBattle frigateSwarm(long seed) {
+        TrackerBattle battle = new TrackerBattle("frigate swarm");
+        for (int side = 0; side < 2; side++) {
+            for (int i = 0; i < 80; i++) {
+                battle.units[side].add(battle.combat.deploy(side, "frigate"));
+            }
+        }
+        return battle.simulate(seed);
+    }
+
+    /** On each side, 12 carriers with 3 wings of 4 fighters each and 6 escorts with 4 drones each */
+    static TrackerBattle carrierHeavy(long seed) {
+        TrackerBattle battle = new TrackerBattle("carrier-heavy");
+        for (int side = 0; side < 2; side++) {
+            for (int i = 0; i < 12; i++) {
+                Ship carrier = battle.combat.deploy(side, "carrier");
+                battle.units[side].add(carrier);
+                for (int j = 0; j < 3; j++) {
+                    battle.units[side].addAll(battle.handlers(battle.combat.addWing(carrier, 4, "fighter").members));
+                }
+            }
+            for (int i = 0; i < 6; i++) {
+                Ship escort = battle.combat.deploy(side, "escort");
+                battle.units[side].add(escort);
+                battle.combat.addDrones(escort, 4, "drone");
+                battle.units[side].addAll(battle.handlers(battle.drones(escort)));
+            }
+        }
+        return battle.simulate(seed);
+    }
+
+    /** 30 ships and 6 carriers with 2 wings of 4 fighters each, against a station with 12 modules,
+     *  2 of which launch a wing of 5 fighters, and 8 escorts */
+    static TrackerBattle stationSiege(long seed) {
+        TrackerBattle battle = new TrackerBattle("station siege");
+        for (int i = 0; i < 30; i++) {
+            battle.units[0].add(battle.combat.deploy(0, "cruiser"));
+        }
+        for (int i = 0; i < 6; i++) {
+            Ship carrier = battle.combat.deploy(0, "carrier");
+            battle.units[0].add(carrier);
+            for (int j = 0; j < 2; j++) {
+                battle.units[0].addAll(battle.handlers(battle.combat.addWing(carrier, 4, "fighter").members));
+            }
+        }
+        Ship station = battle.combat.deploy(1, "station");
+        battle.units[1].add(station);
+        for (int i = 0; i < 12; i++) {
+            Ship module = battle.combat.addModule(station, "station_module");
+            battle.units[1].add(module);
+            if (i < 2) {
+                battle.units[1].addAll(battle.handlers(battle.combat.addWing(module, 5, "fighter").members));
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            battle.units[1].add(battle.combat.deploy(1, "escort"));
+        }
+        return battle.simulate(seed);
+    }
+
+    private List<Ship> handlers(List<ShipAPI> ships) {
+        List<Ship> handlers = new ArrayList<>(ships.size());
+        for (ShipAPI ship : ships) {
+            handlers.add((Ship) StubCombat.handler(ship));
+        }
+        return handlers;
+    }
+
+    private List<ShipAPI> drones(Ship ship) {
+        return ship.api.getDeployedDrones();
+    }
+
+    private TrackerBattle simulate(long seed) {
+        Random random = new Random(seed);
+        int[][] targets = {new int[units[0].size()], new int[units[1].size()]};
+        int retargetFrames = (int) (RETARGET_INTERVAL / FRAME);
+        float hitChance = HITS_PER_SECOND * FRAME;
+        float lossChance = FRAME / CRAFT_LIFETIME;
+        for (int frame = 0; frame < frames; frame++) {
+            for (int side = 0; side < 2; side++) {
+                List<Ship> own = units[side];
+                for (int i = 0; i < own.size(); i++) {
+                    Ship unit = own.get(i);
+                    if (unit.isCraft() && random.nextFloat() < lossChance) {
+                        Ship replacement = combat.newReplacement(unit);
+                        lost.add(unit);
+                        replacements.add(replacement);
+                        replacementFrame.add(frame);
+                        own.set(i, replacement);
+                    }
+                }
+            }
+            for (int side = 0; side < 2; side++) {
+                List<Ship> own = units[side], other = units[1 - side];
+                for (int i = 0; i < own.size(); i++) {
+                    if (frame % retargetFrames == 0) {
+                        targets[side][i] = random.nextInt(other.size());
+                    }
+                    if (random.nextFloat() < hitChance) {
+                        add(frame, own.get(i), other.get(targets[side][i]), random);
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    private void add(int frame, Ship dealer, Ship receiver, Random random) {
+        if (eventCount == eventFrame.length) {
+            int capacity = 2 * eventFrame.length;
+            eventFrame = Arrays.copyOf(eventFrame, capacity);
+            source = Arrays.copyOf(source, capacity);
+            target = Arrays.copyOf(target, capacity);
+            hull = Arrays.copyOf(hull, capacity);
+            armor = Arrays.copyOf(armor, capacity);
+            shields = Arrays.copyOf(shields, capacity);
+        }
+        // Mostly shield hits, with the occasional burst of armor and hull damage
+        boolean shieldHit = random.nextFloat() < 0.6f;
+        float amount = 50f + 450f * random.nextFloat() * random.nextFloat();
+        eventFrame[eventCount] = frame;
+        source[eventCount] = dealer.api;
+        target[eventCount] = receiver.api;
+        shields[eventCount] = shieldHit ? amount : 0f;
+        armor[eventCount] = shieldHit ? 0f : 0.6f * amount;
+        hull[eventCount] = shieldHit ? 0f : 0.4f * amount;
+        eventCount++;
+    }
+}
@@ -0,0 +1,130 @@
+package progsmod.data.combat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fs.starfarer.api.input.InputEventAPI;
+
+import util.SModUtils;
+
+/** Times [ContributionTracker] itself on stub battles, without the game: damage events go through its
+ *  damage listener, so [ContributionTracker.registerDamage] has to find each ship's handle, link craft
+ *  and modules and register ships the way it does in combat, and every frame goes through
+ *  [ContributionTracker.advance], which ends intervals and turns damage into contribution.
+ *  Run with the mod's classes and the game's API on the classpath:
+ *    java progsmod.data.combat.TrackerBenchmark [frigate|carrier|station...]
+ *  See [TrackerBattle] for the battle profiles and [ContributionBenchmark] for timing
+ *  [ContributionCalculator] alone. */
+public final class TrackerBenchmark {
+
+    private static final long SEED = 1;
+    /** Untimed runs before the timed ones, to let the JIT settle */
+    private static final int WARMUP_RUNS = 3;
+    private static final int TIMED_RUNS = 5;
+
+    private TrackerBenchmark() {}
+
+    public static void main(String[] args) {
+        // Defaults from progsmod_settings.json
+        SModUtils.Constants.COMBAT_UPDATE_INTERVAL = 3f;
+        SModUtils.Constants.COMBAT_UPDATE_INTERVAL_MIN = 1.5f;
+        SModUtils.Constants.COMBAT_UPDATE_INTERVAL_MAX = 8f;
+        SModUtils.Constants.ADAPTIVE_COMBAT_UPDATE_INTERVAL = false;
+        SModUtils.Constants.COMBAT_UPDATE_ENEMIES_PER_FRAME = 0;
+        SModUtils.Constants.RECORD_COMBAT_DAMAGE = false;
+        SModUtils.Constants.PROFILE_COMBAT_TRACKER = false;
+        List<String> profiles = new ArrayList<>();
+        Collections.addAll(profiles, args.length > 0 ? args : new String[] {"frigate", "carrier", "station"});
+        for (String profile : profiles) {
+            Result best = null;
+            for (int i = 0; i < WARMUP_RUNS + TIMED_RUNS; i++) {
+                Result result = run(battle(profile));
+                if (i >= WARMUP_RUNS && (best == null || result.totalNanos() < best.totalNanos())) {
+                    best = result;
+                }
+            }
+            System.out.println(best);
+        }
+    }
+
+    private static TrackerBattle battle(String profile) {
+        switch (profile) {
+            case "frigate": return TrackerBattle.frigateSwarm(SEED);
+            case "carrier": return TrackerBattle.carrierHeavy(SEED);
+            case "station": return TrackerBattle.stationSiege(SEED);
+            default: throw new IllegalArgumentException("Unknown battle profile: " + profile);
+        }
+    }
+
+    static Result run(TrackerBattle battle) {
+        Result result = new Result(battle);
+        ContributionTracker tracker = new ContributionTracker();
+        tracker.init(battle.combat.engine);
+        ContributionTracker.ProgSModDamageListener listener = new ContributionTracker.ProgSModDamageListener(tracker);
+        StubCombat.Damage damage = new StubCombat.Damage();
+        List<InputEventAPI> noInput = Collections.emptyList();
+        StubCombat.aiFlagProbesDuringDamage = 0;
+        int event = 0, replacement = 0;
+        for (int frame = 0; frame < battle.frames; frame++) {
+            while (replacement < battle.replacementFrame.size() && battle.replacementFrame.get(replacement) == frame) {
+                StubCombat.replace(battle.lost.get(replacement), battle.replacements.get(replacement));
+                replacement++;
+            }
+            long start = System.nanoTime();
+            StubCombat.handlingDamage = true;
+            for (; event < battle.eventCount && battle.eventFrame[event] == frame; event++) {
+                damage.hull = battle.hull[event];
+                damage.armor = battle.armor[event];
+                damage.shields = battle.shields[event];
+                listener.reportDamageApplied(battle.source[event], battle.target[event], damage.api);
+            }
+            StubCombat.handlingDamage = false;
+            result.damageNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            tracker.advance(TrackerBattle.FRAME, noInput);
+            result.updateNanos += System.nanoTime() - start;
+            result.peakTableSize = Math.max(result.peakTableSize, tracker.getBaseShipTableSize());
+        }
+        result.damageEvents = tracker.getDamageEventCount();
+        result.allocations = tracker.getDamageTableAllocationCount();
+        result.aiFlagProbes = StubCombat.aiFlagProbesDuringDamage;
+        result.replacements = battle.replacementFrame.size();
+        battle.combat.endCombat();
+        long start = System.nanoTime();
+        tracker.advance(TrackerBattle.FRAME, noInput);
+        result.updateNanos += System.nanoTime() - start;
+        ContributionTracker.takeSnapshot();
+        return result;
+    }
+
+    static final class Result {
+        private final TrackerBattle battle;
+        private long damageNanos, updateNanos, damageEvents, aiFlagProbes;
+        private int peakTableSize, allocations, replacements;
+
+        private Result(TrackerBattle battle) {
+            this.battle = battle;
+        }
+
+        long totalNanos() {
+            return damageNanos + updateNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s: %d hits (%d counted), %d craft replaced, %.1f ns per hit, %.1f us per frame on updates, " +
+                    "%d AI flag lookups while handling damage, %d base ship table entries at peak, %d allocations",
+                    battle.name,
+                    battle.eventCount,
+                    damageEvents,
+                    replacements,
+                    battle.eventCount == 0 ? 0.0 : (double) damageNanos / battle.eventCount,
+                    updateNanos / 1e3 / battle.frames,
+                    aiFlagProbes,
+                    peakTableSize,
+                    allocations);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package progsmod.data.campaign;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fs.starfarer.api.fleet.FleetMemberAPI;
+
+import util.SModUtils;
+
+/** Total XP worth of the enemy ships in a single engagement, before it's split between
+ *  contribution types and player ships. Each enemy's worth only depends on the damage it
+ *  took and its deployment cost, so it's computed at most once per engagement and shared
+ *  between the combat and pursuit XP paths. */
+class EnemyXPValueCache {
+
+    private final Map<String, Float> values = new HashMap<>();
+
+    /** Returns the XP worth of [enemy], computing it if it hasn't been seen yet. */
+    float get(FleetMemberAPI enemy) {
+        Float value = values.get(enemy.getId());
+        if (value == null) {
+            value = compute(enemy);
+            values.put(enemy.getId(), value);
+        }
+        return value;
+    }
+
+    /** Enemy ships with d-mods are worth less than pristine ones, but never less than
+     *  TARGET_DMOD_LOWER_BOUND times as much. */
+    private static float compute(FleetMemberAPI enemy) {
+        return SModUtils.Constants.XP_GAIN_MULTIPLIER 
+            * enemy.getStatus().getHullDamageTaken() 
+            * Math.max(
+                 enemy.getDeploymentCostSupplies(), 
+                 SModUtils.Constants.TARGET_DMOD_LOWER_BOUND * enemy.getDeploymentPointsCost()
+            );
+    }
+}
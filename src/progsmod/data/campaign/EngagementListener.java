@@ -2,7 +2,6 @@ package progsmod.data.campaign;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -25,22 +24,23 @@ import com.fs.starfarer.api.util.Misc;
 
 import progsmod.data.combat.ContributionTracker;
 import progsmod.data.combat.ContributionTracker.ContributionType;
+import progsmod.data.combat.EngagementContributionSnapshot;
 import util.SModUtils;
 
 public class EngagementListener extends BaseCampaignEventListener {
 
-    /** Maps ship id to the corresponding fleetMember id. */
-    private Map<String, String> shipToFleetMemberMap;
     /** Maps fleetMemberIds to their corresponding fleetMembers. */
     private Map<String, FleetMemberAPI> idToFleetMemberMap;
-    /** Maps fleet member ids to their total XP gain, by contribution type */
-    private Map<String, Map<ContributionType, Float>> xpGainMap;
     /** Set of player ships that are eligible to gain XP */
     private Set<String> playerFilter;
     /** Set of enemy ships that are eligible to give XP */
     private Set<String> enemyFilter;
+    /** XP worth of the enemy ships in the current engagement */
+    private EnemyXPValueCache enemyXPValues;
     /** Keep track of the last dialog opened in order to add text to it. */
     private InteractionDialogAPI lastDialog;
+    /** Cached, since values() makes a new array every time */
+    private static final ContributionType[] CONTRIBUTION_TYPES = ContributionType.values();
 
     public EngagementListener(boolean permaRegister) {
         super(permaRegister);
@@ -49,6 +49,7 @@ public class EngagementListener extends BaseCampaignEventListener {
     @Override
     public void reportShownInteractionDialog(InteractionDialogAPI dialog) {
         lastDialog = dialog;
+        SModUtils.attachPendingTrackerHullMods();
     }
 
     @Override
@@ -118,18 +119,12 @@ public class EngagementListener extends BaseCampaignEventListener {
     @Override
     public void reportPlayerEngagement(EngagementResultAPI result) {
         // Populate the required utility mappings
-        shipToFleetMemberMap = ContributionTracker.getShipToFleetMemberMap();
-        Map<ContributionType, Map<String, Map<String, Float>>> totalContributionMap =
-                ContributionTracker.getContributionTable();
+        EngagementContributionSnapshot contributions = ContributionTracker.takeSnapshot();
         idToFleetMemberMap = new HashMap<>();
-        xpGainMap = new HashMap<>();
+        enemyXPValues = new EnemyXPValueCache();
         playerFilter = new HashSet<>();
         enemyFilter = new HashSet<>();
 
-        if (totalContributionMap == null) {
-            return;
-        }
-
         EngagementResultForFleetAPI playerResult = result.getLoserResult(), enemyResult = result.getWinnerResult();
         List<FleetMemberAPI> playerFleet = Global.getSector().getPlayerFleet().getFleetData().getMembersListCopy();
         if (result.didPlayerWin()) {
@@ -138,22 +133,24 @@ public class EngagementListener extends BaseCampaignEventListener {
         }
 
         // List of ships that are eligible to gain XP
-        playerFilter.addAll(SModUtils.getFleetMemberIds(playerFleet));
+        addFleetMemberIds(playerFilter, playerFleet);
         if (!SModUtils.Constants.GIVE_XP_TO_DISABLED_SHIPS) {
-            playerFilter.removeAll(new HashSet<>(SModUtils.getFleetMemberIds(playerResult.getDestroyed())));
-            playerFilter.removeAll(new HashSet<>(SModUtils.getFleetMemberIds(playerResult.getDisabled())));
+            removeFleetMemberIds(playerFilter, playerResult.getDestroyed());
+            removeFleetMemberIds(playerFilter, playerResult.getDisabled());
         }
         // List of ships that can give XP when damaged
-        enemyFilter.addAll(SModUtils.getFleetMemberIds(enemyResult.getDestroyed()));
-        enemyFilter.addAll(SModUtils.getFleetMemberIds(enemyResult.getDisabled()));
+        addFleetMemberIds(enemyFilter, enemyResult.getDestroyed());
+        addFleetMemberIds(enemyFilter, enemyResult.getDisabled());
         if (!SModUtils.Constants.ONLY_GIVE_XP_FOR_KILLS) {
-            enemyFilter.addAll(SModUtils.getFleetMemberIds(enemyResult.getRetreated()));
-            enemyFilter.addAll(SModUtils.getFleetMemberIds(enemyResult.getDeployed()));
+            addFleetMemberIds(enemyFilter, enemyResult.getRetreated());
+            addFleetMemberIds(enemyFilter, enemyResult.getDeployed());
         }
 
         // If nobody was deployed (second-in-command handles pursuit) no individual damage data
         if (playerResult.getAllEverDeployedCopy() == null) {
-            giveXPForPursuit(playerFleet, enemyResult.getFleet().getFleetData().getMembersListCopy(), enemyFilter);
+            SModUtils.XPTransaction xpTransaction = SModUtils.beginXPTransaction();
+            giveXPForPursuit(playerFleet, enemyResult.getFleet().getFleetData().getMembersListCopy(), enemyFilter, xpTransaction);
+            xpTransaction.commit();
             return;
         }
 
@@ -165,56 +162,59 @@ public class EngagementListener extends BaseCampaignEventListener {
         }
 
         // Convert player ships' contributions into XP gains
-        for (ContributionType type : totalContributionMap.keySet()) {
-            processContributions(type, totalContributionMap.get(type));
-        }
+        float[] xpGain = distributeXP(contributions);
 
         // Give XP to the ships that earned XP.
-        float totalXPGain = 0f;
-        for (Map.Entry<String, Map<ContributionType, Float>> xpGainEntry : xpGainMap.entrySet()) {
-            String id = xpGainEntry.getKey();
-            for (Map.Entry<ContributionType, Float> xpByType : xpGainEntry.getValue().entrySet()) {
-                float xpGain = xpByType.getValue();
-                SModUtils.giveXP(id, xpGain);
-                totalXPGain += xpGain;
+        // All of an engagement's XP gains go through one transaction, so that
+        // each ship's data is only updated once.
+        SModUtils.XPTransaction xpTransaction = SModUtils.beginXPTransaction();
+        for (int player = 0; player < contributions.getPlayerCount(); player++) {
+            int offset = player * CONTRIBUTION_TYPES.length;
+            float shipXPGain = 0f;
+            for (int type = 0; type < CONTRIBUTION_TYPES.length; type++) {
+                shipXPGain += xpGain[offset + type];
             }
+            if (shipXPGain <= 0f) {
+                continue;
+            }
+            String id = contributions.getPlayerFleetMemberId(player);
+            xpTransaction.add(id, shipXPGain);
             // Show the XP gain in the dialog
-            if (idToFleetMemberMap.containsKey(id) && !SModUtils.Constants.CONDENSE_XP_GAIN_MESSAGES) {
+            FleetMemberAPI fleetMember = idToFleetMemberMap.get(id);
+            if (fleetMember != null && !SModUtils.Constants.CONDENSE_XP_GAIN_MESSAGES) {
                 SModUtils.addTypedXPGainToDialog(
                     lastDialog, 
-                    idToFleetMemberMap.get(id), 
-                    xpGainMap.get(id), 
+                    fleetMember, 
+                    xpGain,
+                    offset,
                     "from combat");
             }
         }
 
+        SModUtils.XPSummary combatXP = xpTransaction.getSummary();
         if (SModUtils.Constants.CONDENSE_XP_GAIN_MESSAGES) {
-            SModUtils.addCondensedXPGainToDialog(lastDialog, totalXPGain, xpGainMap.size());
+            SModUtils.addCondensedXPGainToDialog(lastDialog, combatXP.totalXP, combatXP.shipCount);
         }
 
-        givePostBattleXP(playerFleet, totalXPGain, false);
+        givePostBattleXP(playerFleet, combatXP.totalXP, false, xpTransaction);
+        xpTransaction.commit();
     }
 
     /** Give only the post battle XP for pursuits. */
-    private void giveXPForPursuit(List<FleetMemberAPI> playerFleet, List<FleetMemberAPI> enemyFleet, Collection<String> enemyFilter) {
+    private void giveXPForPursuit(List<FleetMemberAPI> playerFleet, List<FleetMemberAPI> enemyFleet, Collection<String> enemyFilter, SModUtils.XPTransaction xpTransaction) {
         float fakeXPGain = 0f;
         for (FleetMemberAPI enemy : enemyFleet) {
             if (!enemyFilter.contains(enemy.getId())) {
                 continue;
             }
-            fakeXPGain += 
-                SModUtils.Constants.XP_GAIN_MULTIPLIER 
-                * enemy.getStatus().getHullDamageTaken() 
-                * Math.max(
-                    enemy.getDeploymentCostSupplies(), 
-                    SModUtils.Constants.TARGET_DMOD_LOWER_BOUND * enemy.getDeploymentPointsCost()
-            );
+            fakeXPGain += enemyXPValues.get(enemy);
         }
-        givePostBattleXP(playerFleet, fakeXPGain, true);
+        givePostBattleXP(playerFleet, fakeXPGain, true, xpTransaction);
     }
 
-    /** Give a fraction of the total XP gained in an engagement to all ships currently in the player's fleet. */
-    private void givePostBattleXP(List<FleetMemberAPI> playerFleet, float totalXPGain, boolean isAutoResolve) {
+    /** Give a fraction of the total XP gained in an engagement to all ships currently in the player's fleet.
+     *  The XP is added to [xpTransaction] rather than given right away. */
+    private void givePostBattleXP(List<FleetMemberAPI> playerFleet, float totalXPGain, boolean isAutoResolve, SModUtils.XPTransaction xpTransaction) {
         List<FleetMemberAPI> civilianShips = new ArrayList<>();
         boolean shouldShow = false;
         for (FleetMemberAPI member : playerFleet) {
@@ -227,7 +227,7 @@ public class EngagementListener extends BaseCampaignEventListener {
                 else if (isAutoResolve) {
                     xpFraction *= SModUtils.Constants.POST_BATTLE_AUTO_PURSUIT_MULTIPLIER;
                 }
-                SModUtils.giveXP(member, totalXPGain * xpFraction);
+                xpTransaction.add(member, totalXPGain * xpFraction);
                 if ((int) (totalXPGain * xpFraction) > 0) {
                     shouldShow = true;
                 }
@@ -242,12 +242,23 @@ public class EngagementListener extends BaseCampaignEventListener {
         }
     }
 
-    /** Process contributions for a specific contribution type (ATTACK, DEFENSE, SUPPORT).
-     *  Puts the result into [this.xpGainMap].
-     *  Note: [contributionTable] uses shipIds, whereas [xpGainMap] uses fleetMemberIds. */
-    private void processContributions(ContributionType type,  Map<String, Map<String, Float>> contributionTable) {
-        for (Map.Entry<String, Map<String, Float>> contributionByEnemy : contributionTable.entrySet()) {
-            String enemyFleetMemberId = shipToFleetMemberMap.get(contributionByEnemy.getKey());
+    /** Splits the XP worth of each eligible enemy ship between the eligible player ships that
+     *  contributed to it, in a single pass over [contributions]. The XP of each type gained by
+     *  player ship [j] of the snapshot is at index j * CONTRIBUTION_TYPES.length + type.ordinal(). */
+    private float[] distributeXP(EngagementContributionSnapshot contributions) {
+        int nTypes = CONTRIBUTION_TYPES.length;
+        int nPlayers = contributions.getPlayerCount();
+        float[] xpGain = new float[nPlayers * nTypes];
+        // Only look up each player ship in the filter once
+        boolean[] eligible = new boolean[nPlayers];
+        for (int player = 0; player < nPlayers; player++) {
+            String playerFleetMemberId = contributions.getPlayerFleetMemberId(player);
+            eligible[player] = playerFleetMemberId != null && playerFilter.contains(playerFleetMemberId);
+        }
+        // XP gained per unit of contribution of each type, for the current enemy
+        float[] xpPerContribution = new float[nTypes];
+        for (int enemy = 0; enemy < contributions.getEnemyCount(); enemy++) {
+            String enemyFleetMemberId = contributions.getEnemyFleetMemberId(enemy);
             if (enemyFleetMemberId == null) {
                 continue;
             }
@@ -258,44 +269,44 @@ public class EngagementListener extends BaseCampaignEventListener {
             if (enemyFleetMember == null) {
                 continue;
             }
-            float totalContribution = 0f;
-            for (float contribution : contributionByEnemy.getValue().values()) {
-                totalContribution += contribution;
+            float enemyXP = enemyXPValues.get(enemyFleetMember);
+            boolean anyContribution = false;
+            for (int type = 0; type < nTypes; type++) {
+                float totalContribution = contributions.getTotal(CONTRIBUTION_TYPES[type], enemy);
+                xpPerContribution[type] = totalContribution <= 0f 
+                        ? 0f 
+                        : enemyXP * getXPFractionForType(CONTRIBUTION_TYPES[type]) / totalContribution;
+                anyContribution |= totalContribution > 0f;
             }
-            if (totalContribution <= 0f) {
+            if (!anyContribution) {
                 continue;
             }
-            float totalXP = 
-                SModUtils.Constants.XP_GAIN_MULTIPLIER 
-                * getXPFractionForType(type) 
-                * enemyFleetMember.getStatus().getHullDamageTaken() 
-                * Math.max(
-                     enemyFleetMember.getDeploymentCostSupplies(), 
-                     SModUtils.Constants.TARGET_DMOD_LOWER_BOUND * enemyFleetMember.getDeploymentPointsCost()
-                );
-            for (Map.Entry<String, Float> contributionByPlayer : contributionByEnemy.getValue().entrySet()) {
-                String playerFleetMemberId = shipToFleetMemberMap.get(contributionByPlayer.getKey());
-                if (playerFleetMemberId == null) {
+            for (int player = 0; player < nPlayers; player++) {
+                if (!eligible[player]) {
                     continue;
                 }
-                if (!playerFilter.contains(playerFleetMemberId)) {
-                    continue;
+                int offset = player * nTypes;
+                for (int type = 0; type < nTypes; type++) {
+                    float contribution = contributions.get(CONTRIBUTION_TYPES[type], enemy, player);
+                    if (contribution > 0f) {
+                        xpGain[offset + type] += xpPerContribution[type] * contribution;
+                    }
                 }
-                addXPGain(playerFleetMemberId, totalXP * contributionByPlayer.getValue() / totalContribution, type);
             }
         }
+        return xpGain;
+    }
+
+    private static void addFleetMemberIds(Set<String> ids, List<FleetMemberAPI> fleetMembers) {
+        for (FleetMemberAPI fm : fleetMembers) {
+            ids.add(fm.getId());
+        }
     }
 
-    /** Does xpGainMap[fleetMemberId][type] += amount, initializing
-     *  maps as needed. */
-    private void addXPGain(String fleetMemberId, float amount, ContributionType type) {
-        Map<ContributionType, Float> xpByType = xpGainMap.get(fleetMemberId);
-        if (xpByType == null) {
-            xpByType = new EnumMap<>(ContributionType.class);
-            xpGainMap.put(fleetMemberId, xpByType);
+    private static void removeFleetMemberIds(Set<String> ids, List<FleetMemberAPI> fleetMembers) {
+        for (FleetMemberAPI fm : fleetMembers) {
+            ids.remove(fm.getId());
         }
-        Float xp = xpByType.get(type);
-        xpByType.put(type, xp == null ? amount : xp + amount);
     }
 
     private float getXPFractionForType(ContributionType type) {
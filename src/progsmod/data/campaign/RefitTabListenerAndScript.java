@@ -6,6 +6,7 @@ import com.fs.starfarer.api.campaign.CampaignUIAPI;
 import com.fs.starfarer.api.campaign.CoreUITabId;
 import com.fs.starfarer.api.campaign.listeners.CoreUITabListener;
 import progsmod.plugin.ProgSMod;
+import util.SModUtils;
 
 public class RefitTabListenerAndScript implements CoreUITabListener, EveryFrameScript {
     private static boolean insideRefitScreen = false;
@@ -15,6 +16,7 @@ public class RefitTabListenerAndScript implements CoreUITabListener, EveryFrameS
         if (CoreUITabId.REFIT.equals(id) && !insideRefitScreen) {
             insideRefitScreen = true;
             ProgSMod.disableStoryPointBuildIn();
+            SModUtils.attachPendingTrackerHullMods();
         }
     }
 
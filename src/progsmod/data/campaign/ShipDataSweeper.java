@@ -0,0 +1,205 @@
+package progsmod.data.campaign;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.fs.starfarer.api.EveryFrameScript;
+import com.fs.starfarer.api.Global;
+import com.fs.starfarer.api.campaign.CargoAPI;
+import com.fs.starfarer.api.campaign.LocationAPI;
+import com.fs.starfarer.api.campaign.SectorEntityToken;
+import com.fs.starfarer.api.campaign.econ.MarketAPI;
+import com.fs.starfarer.api.campaign.econ.SubmarketAPI;
+import com.fs.starfarer.api.fleet.FleetMemberAPI;
+
+import util.SModUtils;
+import util.SModUtils.ShipData;
+
+/** Removes ship data for ships that the player no longer has, e.g. ships that were sold, scuttled
+ *  or destroyed while out of the player's hands, which would otherwise stay in the save forever.
+ *  Runs when the game is loaded and then every SHIP_DATA_SWEEP_INTERVAL_DAYS. Each sweep first
+ *  collects the ships the player has, looking through one location or market per frame, then checks
+ *  at most SHIP_DATA_SWEEP_BATCH_SIZE entries per frame. A ship has to be missing from the player's
+ *  fleet and from every submarket in the sector, including storage at abandoned stations and other
+ *  markets outside the economy, in two sweeps in a row before its data is touched, so that ships that
+ *  are only briefly out of reach, e.g. in the middle of a transfer, don't lose their XP. Entries whose
+ *  hull is unknown, e.g. from before hulls were recorded, can't go to the reserve and are purged. */
+public class ShipDataSweeper implements EveryFrameScript {
+
+    /** Ids of ships the player had while the current sweep was collecting them */
+    private Set<String> liveIds;
+    /** Locations whose markets the current sweep still has to find */
+    private List<LocationAPI> locationsToScan;
+    /** Markets the current sweep still has to look through */
+    private List<MarketAPI> marketsToScan;
+    private Set<String> seenMarkets;
+    /** Entries that the current sweep still has to check */
+    private List<String> toCheck;
+    private int checked;
+    /** Ids that were missing in the previous sweep */
+    private Set<String> suspects = new HashSet<>();
+    /** Ids that are missing in the current sweep */
+    private Set<String> newSuspects;
+    private int purged, archived;
+    private float purgedXP, archivedXP;
+    /** Timestamp of the start of the last sweep; sweep as soon as possible if unset */
+    private Long lastSweepTimestamp;
+
+    @Override
+    public boolean isDone() {
+        return false;
+    }
+
+    @Override
+    public boolean runWhilePaused() {
+        return false;
+    }
+
+    @Override
+    public void advance(float amount) {
+        if (SModUtils.Constants.DISABLE_MOD || Global.getSector().getPlayerFleet() == null) {
+            return;
+        }
+        if (toCheck == null) {
+            if (liveIds == null) {
+                if (SModUtils.Constants.SHIP_DATA_SWEEP_INTERVAL_DAYS <= 0f) {
+                    return;
+                }
+                if (lastSweepTimestamp != null
+                        && Global.getSector().getClock().getElapsedDaysSince(lastSweepTimestamp)
+                            < SModUtils.Constants.SHIP_DATA_SWEEP_INTERVAL_DAYS) {
+                    return;
+                }
+                startSweep();
+            }
+            collect();
+            return;
+        }
+        int budget = Math.max(1, SModUtils.Constants.SHIP_DATA_SWEEP_BATCH_SIZE);
+        int end = Math.min(toCheck.size(), checked + budget);
+        for (; checked < end; checked++) {
+            check(toCheck.get(checked));
+        }
+        if (checked >= toCheck.size()) {
+            finishSweep();
+        }
+    }
+
+    private void startSweep() {
+        lastSweepTimestamp = Global.getSector().getClock().getTimestamp();
+        liveIds = new HashSet<>();
+        addFleetIds();
+        // Look at every market, not just those in the economy, so that e.g. storage at
+        // abandoned stations counts too
+        seenMarkets = new HashSet<>();
+        marketsToScan = new ArrayList<>();
+        for (MarketAPI market : Global.getSector().getEconomy().getMarketsCopy()) {
+            queueMarket(market);
+        }
+        locationsToScan = new ArrayList<>(Global.getSector().getAllLocations());
+    }
+
+    /** Looks through one market or location for ships the player has, and starts checking entries
+     *  once there are none left. */
+    private void collect() {
+        if (!marketsToScan.isEmpty()) {
+            addLiveIds(marketsToScan.remove(marketsToScan.size() - 1));
+            return;
+        }
+        if (!locationsToScan.isEmpty()) {
+            LocationAPI location = locationsToScan.remove(locationsToScan.size() - 1);
+            for (SectorEntityToken entity : location.getAllEntities()) {
+                queueMarket(entity.getMarket());
+            }
+            return;
+        }
+        // Ships may have moved from a place that wasn't looked at yet into the fleet in the meantime
+        addFleetIds();
+        locationsToScan = null;
+        marketsToScan = null;
+        seenMarkets = null;
+        // Entries added while the sweep is running belong to ships the player has, so a copy is fine
+        toCheck = new ArrayList<>(SModUtils.SHIP_DATA_TABLE.keySet());
+        checked = 0;
+        newSuspects = new HashSet<>();
+        purged = archived = 0;
+        purgedXP = archivedXP = 0f;
+    }
+
+    private void addFleetIds() {
+        for (FleetMemberAPI fm : Global.getSector().getPlayerFleet().getFleetData().getMembersListCopy()) {
+            liveIds.add(fm.getId());
+            SModUtils.recordHullId(fm);
+        }
+    }
+
+    private void queueMarket(MarketAPI market) {
+        if (market != null && seenMarkets.add(market.getId())) {
+            marketsToScan.add(market);
+        }
+    }
+
+    /** Adds the ships in every submarket of [market] to [liveIds]. */
+    private void addLiveIds(MarketAPI market) {
+        for (SubmarketAPI submarket : market.getSubmarketsCopy()) {
+            CargoAPI cargo = submarket.getCargo();
+            if (cargo == null || cargo.getMothballedShips() == null) {
+                continue;
+            }
+            for (FleetMemberAPI fm : cargo.getMothballedShips().getMembersListCopy()) {
+                liveIds.add(fm.getId());
+                SModUtils.recordHullId(fm);
+            }
+        }
+    }
+
+    private void check(String fmId) {
+        if (liveIds.contains(fmId)) {
+            return;
+        }
+        ShipData data = SModUtils.SHIP_DATA_TABLE.get(fmId);
+        if (data == null) {
+            return;
+        }
+        if (!suspects.contains(fmId)) {
+            newSuspects.add(fmId);
+            return;
+        }
+        float xp = data.xp + data.xpSpentOnIncreasingLimit;
+        float reserveXP = xp * SModUtils.Constants.RESERVE_XP_FRACTION;
+        // Without the hull, the XP can't go to the reserve
+        if (SModUtils.Constants.SHIP_DATA_SWEEP_ARCHIVE_TO_RESERVE && data.hullId != null && reserveXP >= 1f) {
+            SModUtils.addReserveXP(data.hullId, reserveXP);
+            archived++;
+            archivedXP += reserveXP;
+        }
+        else {
+            if (data.hullId == null && xp > 0f) {
+                Global.getLogger(ShipDataSweeper.class).info(String.format(
+                        "Ship data sweep: purged %s, whose hull is unknown, with %.0f XP", fmId, xp));
+            }
+            purged++;
+            purgedXP += xp;
+        }
+        SModUtils.deleteXPData(fmId);
+    }
+
+    private void finishSweep() {
+        Global.getLogger(ShipDataSweeper.class).info(String.format(
+                "Ship data sweep: checked %d entries, %d newly missing, %d purged (%.0f XP), " +
+                "%d archived to reserve XP (%.0f XP), %d entries left",
+                toCheck.size(),
+                newSuspects.size(),
+                purged,
+                purgedXP,
+                archived,
+                archivedXP,
+                SModUtils.SHIP_DATA_TABLE.size()));
+        suspects = newSuspects;
+        newSuspects = null;
+        toCheck = null;
+        liveIds = null;
+    }
+}
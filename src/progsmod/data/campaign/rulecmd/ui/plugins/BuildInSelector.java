@@ -34,6 +34,25 @@ public class BuildInSelector extends Selector<HullModButton> {
 
     private SelectorContainer container;
 
+    /** Number of checker variants whose applicability results are kept */
+    private static final int MAX_CACHED_VARIANTS = 16;
+    /** Applicability of hull mods to ships made from checkerVariant, keyed by [variantKey]
+     *  and then by hull mod id, so that selecting and deselecting doesn't recheck everything. */
+    private final Map<String, Map<String, Applicability>> applicabilityCache =
+            new LinkedHashMap<String, Map<String, Applicability>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, Applicability>> eldest) {
+                    return size() > MAX_CACHED_VARIANTS;
+                }
+            };
+    /** Temporary ship made from checkerVariant, and the [variantKey] it was made with */
+    private ShipAPI cachedCheckerShip;
+    private String cachedCheckerShipKey;
+    /** Maps hull mod ids to the ids of hull mods that could only be built in once it was selected.
+     *  Grows as hull mods are selected, from the applicability results before and after.
+     *  Only a hint: something else may satisfy the dependent now, so check before acting on it. */
+    private final Map<String, Set<String>> dependents = new HashMap<>();
+
     public boolean needRemoveText = true;
     public boolean needEnhanceText = true;
     public boolean needBuildInText = true;
@@ -185,15 +204,24 @@ public class BuildInSelector extends Selector<HullModButton> {
     private BitSet disableUnapplicable() {
         boolean checkedEntriesChanged = true;
         BitSet disabledIndices = new BitSet();
-        InteractionDialogAPI dialog = Global.getSector().getCampaignUI().getCurrentInteractionDialog();
-        SectorEntityToken interactionTarget = dialog == null ? null : dialog.getInteractionTarget();
+        SectorEntityToken interactionTarget = getInteractionTarget();
         while (checkedEntriesChanged) {
-            ShipAPI checkerShip = TempShipMaker.makeShip(checkerVariant, fleetMember);
+            String key = variantKey();
+            Map<String, Applicability> applicabilities = getApplicabilities(key);
+            // Make the checker ship before anything gets deselected, which changes checkerVariant
+            ShipAPI checkerShip = null;
+            for (HullModButton button : items) {
+                if (!button.data.isEnhanceOnly && !applicabilities.containsKey(button.data.id)) {
+                    checkerShip = getCheckerShip(key);
+                    break;
+                }
+            }
             // Since hull mods may have dependencies, some checked entries may
             // need to be unchecked.
-            // Since dependencies can be chained, we need to do this in a loop.
+            // Known dependency chains are deselected all at once through [dependents];
+            // the loop catches any that aren't known yet.
             // (# of loops is bounded by # of checked entries as well as
-            // longest hull mod dependency chain)
+            // longest unknown hull mod dependency chain)
             checkedEntriesChanged = false;
             for (int i = 0; i < items.size(); i++) {
                 HullModButton button = items.get(i);
@@ -201,26 +229,22 @@ public class BuildInSelector extends Selector<HullModButton> {
                     continue;
                 }
                 HullModSpecAPI hullMod = Global.getSettings().getHullModSpec(button.data.id);
+                Applicability applicability = applicabilities.get(button.data.id);
+                if (applicability == null) {
+                    applicability = checkApplicability(hullMod, checkerShip, interactionTarget);
+                    applicabilities.put(button.data.id, applicability);
+                }
                 boolean shouldDisable = false;
                 String disableText = null;
-                if (!hullMod.getEffect().isApplicableToShip(checkerShip) && !button.data.isBuiltIn && !originalVariant.hasHullMod(button.data.id)) {
-                    String reason = hullMod.getEffect().getUnapplicableReason(checkerShip);
-                    // Can build in any number of logistics hull mods
-                    // Don't use s-mods in the check ship as we want to be able to tell when
-                    // incompatibilities arise
-                    // via forcible removing of non s-mods
-                    if (reason != null && !reason.startsWith("Maximum of 2 non-built-in \"Logistics\"")) {
-                        disableText = SModUtils.shortenText(reason, button.description);
+                if (!applicability.applicable && !button.data.isBuiltIn && !originalVariant.hasHullMod(button.data.id)) {
+                    if (blocksBuildIn(applicability)) {
+                        disableText = SModUtils.shortenText(applicability.unapplicableReason, button.description);
                         shouldDisable = true;
                     }
 
                 } else if (interactionTarget != null && interactionTarget.getMarket() != null) {
-                    CoreUITradeMode tradeMode = CoreUITradeMode.valueOf(
-                            interactionTarget.getMemory().getString("$tradeMode"));
-                    if (!originalVariant.hasHullMod(button.data.id) && !hullMod.getEffect().canBeAddedOrRemovedNow(checkerShip,
-                            interactionTarget.getMarket(), tradeMode)) {
-                        String reason = hullMod.getEffect().getCanNotBeInstalledNowReason(checkerShip,
-                                interactionTarget.getMarket(), tradeMode);
+                    if (!originalVariant.hasHullMod(button.data.id) && !applicability.canChangeNow) {
+                        String reason = applicability.cannotChangeNowReason;
                         shouldDisable = true;
                         if (reason != null && !button.data.isBuiltIn) {
                             // getCanNotBeInstalledNowReason() returns a weird message when trying to build in logistic
@@ -237,6 +261,9 @@ public class BuildInSelector extends Selector<HullModButton> {
                 if (shouldDisable) {
                     if (button.isSelected()) {
                         forceDeselect(i);
+                        // Take anything that relied on it along with it now, rather than finding
+                        // out one link of the chain per pass
+                        forceDeselectDependents(button.data.id, disabledIndices);
                         checkedEntriesChanged = true;
                     }
                     if (disableText == null) {
@@ -250,6 +277,159 @@ public class BuildInSelector extends Selector<HullModButton> {
         return disabledIndices;
     }
 
+    /** Whether [applicability] keeps its hull mod from being built in. */
+    private static boolean blocksBuildIn(Applicability applicability) {
+        String reason = applicability.unapplicableReason;
+        // Can build in any number of logistics hull mods
+        // Don't use s-mods in the check ship as we want to be able to tell when
+        // incompatibilities arise
+        // via forcible removing of non s-mods
+        return !applicability.applicable && reason != null
+                && !reason.startsWith("Maximum of 2 non-built-in \"Logistics\"");
+    }
+
+    /** Records which hull mods became applicable when [hullModId] was added, taking the checker variant
+     *  from [keyBefore] to [keyAfter]. */
+    private void recordDependents(String hullModId, String keyBefore, String keyAfter) {
+        Map<String, Applicability> before = applicabilityCache.get(keyBefore);
+        Map<String, Applicability> after = applicabilityCache.get(keyAfter);
+        if (before == null || after == null) {
+            return;
+        }
+        for (Map.Entry<String, Applicability> entry : after.entrySet()) {
+            Applicability old = before.get(entry.getKey());
+            if (old == null || !blocksBuildIn(old) || blocksBuildIn(entry.getValue())) {
+                continue;
+            }
+            Set<String> ids = dependents.get(hullModId);
+            if (ids == null) {
+                ids = new HashSet<>();
+                dependents.put(hullModId, ids);
+            }
+            ids.add(entry.getKey());
+        }
+    }
+
+    /** Deselects every selected hull mod that, directly or through others, could only be built in
+     *  because [hullModId] was selected and can't be now that it isn't, adding their indices to
+     *  [disabledIndices]. */
+    private void forceDeselectDependents(String hullModId, BitSet disabledIndices) {
+        SectorEntityToken interactionTarget = getInteractionTarget();
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            indices.put(items.get(i).data.id, i);
+        }
+        Deque<String> toVisit = new ArrayDeque<>();
+        toVisit.add(hullModId);
+        while (!toVisit.isEmpty()) {
+            String requiredId = toVisit.poll();
+            Set<String> ids = dependents.get(requiredId);
+            if (ids == null) {
+                continue;
+            }
+            for (String id : ids) {
+                Integer index = indices.get(id);
+                if (index == null || originalVariant.hasHullMod(id)) {
+                    continue;
+                }
+                HullModButton button = items.get(index);
+                if (!button.isSelected() || button.data.isBuiltIn || button.data.isEnhanceOnly) {
+                    continue;
+                }
+                // Another selected hull mod may satisfy it as well
+                if (!isBlocked(id, interactionTarget)) {
+                    continue;
+                }
+                forceDeselect(index);
+                String reason = "Requires " + Global.getSettings().getHullModSpec(requiredId).getDisplayName();
+                disable(index, reason, true);
+                disabledIndices.set(index);
+                toVisit.add(id);
+            }
+        }
+    }
+
+    /** Whether [hullModId] can't be built in on checkerVariant as it is now, checking it against
+     *  a checker ship if the result isn't cached yet. */
+    private boolean isBlocked(String hullModId, SectorEntityToken interactionTarget) {
+        String key = variantKey();
+        Map<String, Applicability> applicabilities = getApplicabilities(key);
+        Applicability applicability = applicabilities.get(hullModId);
+        if (applicability == null) {
+            applicability = checkApplicability(
+                    Global.getSettings().getHullModSpec(hullModId), getCheckerShip(key), interactionTarget);
+            applicabilities.put(hullModId, applicability);
+        }
+        return blocksBuildIn(applicability);
+    }
+
+    private static SectorEntityToken getInteractionTarget() {
+        InteractionDialogAPI dialog = Global.getSector().getCampaignUI().getCurrentInteractionDialog();
+        return dialog == null ? null : dialog.getInteractionTarget();
+    }
+
+    /** Cached results of a hull mod's applicability checks against one checker variant */
+    private static class Applicability {
+        private boolean applicable;
+        private String unapplicableReason;
+        /** Always true away from markets */
+        private boolean canChangeNow = true;
+        private String cannotChangeNowReason;
+    }
+
+    private static Applicability checkApplicability(HullModSpecAPI hullMod, ShipAPI checkerShip,
+                                                    SectorEntityToken interactionTarget) {
+        Applicability applicability = new Applicability();
+        HullModEffect effect = hullMod.getEffect();
+        applicability.applicable = effect.isApplicableToShip(checkerShip);
+        if (!applicability.applicable) {
+            applicability.unapplicableReason = effect.getUnapplicableReason(checkerShip);
+        }
+        if (interactionTarget != null && interactionTarget.getMarket() != null) {
+            CoreUITradeMode tradeMode = CoreUITradeMode.valueOf(interactionTarget.getMemory().getString("$tradeMode"));
+            applicability.canChangeNow =
+                    effect.canBeAddedOrRemovedNow(checkerShip, interactionTarget.getMarket(), tradeMode);
+            if (!applicability.canChangeNow) {
+                applicability.cannotChangeNowReason =
+                        effect.getCanNotBeInstalledNowReason(checkerShip, interactionTarget.getMarket(), tradeMode);
+            }
+        }
+        return applicability;
+    }
+
+    /** Identifies checkerVariant's current set of hull mods */
+    private String variantKey() {
+        List<String> ids = new ArrayList<>(checkerVariant.getHullMods());
+        Collections.sort(ids);
+        StringBuilder sb = new StringBuilder();
+        for (String id : ids) {
+            sb.append(id).append(',');
+        }
+        return sb.toString();
+    }
+
+    /** Returns the cached applicability results for the checker variant with [key], which may be
+     *  missing some or all hull mods. */
+    private Map<String, Applicability> getApplicabilities(String key) {
+        Map<String, Applicability> applicabilities = applicabilityCache.get(key);
+        if (applicabilities == null) {
+            applicabilities = new HashMap<>();
+            applicabilityCache.put(key, applicabilities);
+        }
+        return applicabilities;
+    }
+
+    /** Returns a temporary ship made from checkerVariant, whose current [variantKey] is [key],
+     *  only making a new one if the variant's hull mods changed since the last one was made.
+     *  The ship gets its own copy of the variant so that it stays valid as checkerVariant changes. */
+    private ShipAPI getCheckerShip(String key) {
+        if (cachedCheckerShip == null || !key.equals(cachedCheckerShipKey)) {
+            cachedCheckerShip = TempShipMaker.makeShip(checkerVariant.clone(), fleetMember);
+            cachedCheckerShipKey = key;
+        }
+        return cachedCheckerShip;
+    }
+
     @Override
     public void advance(float amount) {
         // Check if the show all button has been pressed
@@ -275,6 +455,7 @@ public class BuildInSelector extends Selector<HullModButton> {
                 countLabel.changeVar(0, countLabel.getVar(0) + 1);
             }
             String hullModId = items.get(index).data.id;
+            String keyBefore = variantKey();
             checkerVariant.addMod(hullModId);
             if (testForDesync()) {
                 forceDeselect(index);
@@ -282,7 +463,9 @@ public class BuildInSelector extends Selector<HullModButton> {
                         "Can't build in due to custom hull mod incompatibility",
                         Misc.getNegativeHighlightColor());
             } else {
+                String keyAfter = variantKey();
                 updateItems();
+                recordDependents(hullModId, keyBefore, keyAfter);
             }
         }
     }
@@ -325,6 +508,7 @@ public class BuildInSelector extends Selector<HullModButton> {
             if (!originalVariant.hasHullMod(hullModId)) {
                 checkerVariant.removeMod(hullModId);
             }
+            forceDeselectDependents(hullModId, new BitSet());
         }
         updateItems();
     }
@@ -0,0 +1,166 @@
+package progsmod.data.combat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/** Records the ships and damage events seen by [ContributionTracker] over one combat
+ *  as a compact binary log, which [ContributionReplay] can turn back into contribution.
+ *  The log starts with [MAGIC], [VERSION] and COMBAT_UPDATE_INTERVAL, followed by records
+ *  that each start with a one-byte tag:
+ *    SHIP:     isPlayer, fleet member id ("" if none), hull id
+ *              (in the order the ships were given their indices)
+ *    DAMAGE:   time, dealer isPlayer, dealer index, dealer owner,
+ *              receiver isPlayer, receiver index, receiver owner, hull, armor, shields
+ *    INTERVAL: time, scale of the interval that just ended
+ *    END:      time
+ *  Since mods can only write text files, the finished log is base64-encoded.
+ *  The log is kept in memory until the combat ends, so it stops taking damage events and intervals
+ *  once it reaches [MAX_BYTES]; the replay then covers the combat up to that point. */
+class CombatRecorder {
+
+    static final int MAGIC = 0x50534d52; // "PSMR"
+    static final int VERSION = 1;
+
+    static final byte TAG_SHIP = 1;
+    static final byte TAG_DAMAGE = 2;
+    static final byte TAG_INTERVAL = 3;
+    static final byte TAG_END = 4;
+
+    /** Size at which the log stops growing, about 250k damage events */
+    static final int MAX_BYTES = 8 << 20;
+
+    private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private boolean truncated = false;
+
+    CombatRecorder(float baseInterval) {
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeFloat(baseInterval);
+        }
+        catch (IOException e) {
+            // Can't happen when writing to memory
+            throw new RuntimeException(e);
+        }
+    }
+
+    void recordShip(boolean isPlayer, String fleetMemberId, String hullId) {
+        try {
+            out.writeByte(TAG_SHIP);
+            out.writeBoolean(isPlayer);
+            out.writeUTF(fleetMemberId == null ? "" : fleetMemberId);
+            out.writeUTF(hullId == null ? "" : hullId);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void recordDamage(float time, boolean dealerIsPlayer, int dealer, int dealerOwner,
+                      boolean receiverIsPlayer, int receiver, int receiverOwner,
+                      float hull, float armor, float shields) {
+        if (isFull()) {
+            return;
+        }
+        try {
+            out.writeByte(TAG_DAMAGE);
+            out.writeFloat(time);
+            out.writeBoolean(dealerIsPlayer);
+            out.writeInt(dealer);
+            out.writeInt(dealerOwner);
+            out.writeBoolean(receiverIsPlayer);
+            out.writeInt(receiver);
+            out.writeInt(receiverOwner);
+            out.writeFloat(hull);
+            out.writeFloat(armor);
+            out.writeFloat(shields);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void recordInterval(float time, float scale) {
+        if (isFull()) {
+            return;
+        }
+        try {
+            out.writeByte(TAG_INTERVAL);
+            out.writeFloat(time);
+            out.writeFloat(scale);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Whether the log has reached [MAX_BYTES]; marks it as truncated if so. */
+    private boolean isFull() {
+        if (!truncated && bytes.size() >= MAX_BYTES) {
+            truncated = true;
+        }
+        return truncated;
+    }
+
+    /** Whether events had to be dropped because the log reached [MAX_BYTES]. */
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    /** Ends the log at [time] and returns it, base64-encoded. */
+    String finish(float time) {
+        try {
+            out.writeByte(TAG_END);
+            out.writeFloat(time);
+            out.flush();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return encode(bytes.toByteArray());
+    }
+
+    static String encode(byte[] data) {
+        StringBuilder sb = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b0 = data[i] & 0xff;
+            int b1 = i + 1 < data.length ? data[i + 1] & 0xff : 0;
+            int b2 = i + 2 < data.length ? data[i + 2] & 0xff : 0;
+            sb.append(BASE64.charAt(b0 >> 2));
+            sb.append(BASE64.charAt(((b0 & 0x3) << 4) | (b1 >> 4)));
+            sb.append(i + 1 < data.length ? BASE64.charAt(((b1 & 0xf) << 2) | (b2 >> 6)) : '=');
+            sb.append(i + 2 < data.length ? BASE64.charAt(b2 & 0x3f) : '=');
+        }
+        return sb.toString();
+    }
+
+    /** Inverse of [encode]. Ignores whitespace; throws IllegalArgumentException on any other bad input. */
+    static byte[] decode(String text) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(text.length() / 4 * 3);
+        int buffer = 0, bits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            int value = BASE64.indexOf(c);
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid base64 character: " + c);
+            }
+            buffer = (buffer << 6) | value;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                result.write((buffer >> bits) & 0xff);
+            }
+        }
+        return result.toByteArray();
+    }
+}
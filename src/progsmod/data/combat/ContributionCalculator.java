@@ -0,0 +1,218 @@
+package progsmod.data.combat;
+
+import progsmod.data.combat.ContributionTracker.ContributionType;
+import progsmod.data.combat.DamageTable.DamageCombiner;
+import progsmod.data.combat.DamageTable.HullAndArmorCombiner;
+import progsmod.data.combat.DamageTable.HullArmorShieldCombiner;
+
+/** Turns damage between indexed player and enemy ships into contribution, one combat
+ *  update interval at a time. Knows nothing about the combat engine, so it can be driven
+ *  either by [ContributionTracker] during combat or by [ContributionReplay] from a recording. */
+class ContributionCalculator {
+
+    private final DamageCombiner hullAndArmor = new HullAndArmorCombiner();
+    private final DamageCombiner hullArmorShield = new HullArmorShieldCombiner();
+
+    private int enemyCount = 0;
+    private int playerCount = 0;
+
+    // For each enemy ship, the amount of each type of damage
+    // dealt by and to each player ship, indexed by [enemy index][player index],
+    // along with which player ships were involved with each enemy.
+    // New damage is always recorded into [damageTable]. At the end of each combat
+    // update interval the two tables are swapped, and [pendingDamageTable] is
+    // converted into contribution, possibly spread over several calls to [process].
+    private DamageTable damageTable = new DamageTable();
+    private DamageTable pendingDamageTable = new DamageTable();
+    /** Number of engaged enemies in [pendingDamageTable] that have already been processed. */
+    private int pendingEnemyCursor = 0;
+    /** Length of the interval that [pendingDamageTable] covers, as a multiple of COMBAT_UPDATE_INTERVAL. */
+    private float pendingScale = 1f;
+
+    // totalContribution[c][i][j] is the total contribution of type [c]
+    // for enemy ship [i] gained by player ship [j] over all combat intervals.
+    // ATTACK contribution is gained for an interval by dealing the most
+    //   combined hull and armor damage to an enemy ship;
+    // DEFENSE contribution is gained for an interval by taking the most
+    //   combined hull, armor, and shields damage from an enemy ship;
+    // SUPPORT contribution is gained for an interval by dealing or taking
+    //   any hull, armor, or shields damage to or from an enemy ship but
+    //   not qualifying for ATTACK or DEFENSE contribution
+    // SUPPORT contribution is only gained during intervals where the enemy ship in question
+    // receives hull or armor damage.
+    private final ContributionTable totalContribution = new ContributionTable();
+
+    /** Sizes the tables to hold [nEnemies] x [nPlayers] ships without reallocating. */
+    void ensureCapacity(int nEnemies, int nPlayers) {
+        damageTable.ensureCapacity(nEnemies, nPlayers);
+        pendingDamageTable.ensureCapacity(nEnemies, nPlayers);
+        totalContribution.ensureCapacity(nEnemies, nPlayers);
+    }
+
+    /** Adds a new enemy ship. Its index is the number of enemy ships added before it. */
+    void addEnemy(String fleetMemberId) {
+        totalContribution.addEnemy(fleetMemberId);
+        enemyCount++;
+        damageTable.ensureCapacity(enemyCount, playerCount);
+        pendingDamageTable.ensureCapacity(enemyCount, playerCount);
+    }
+
+    /** Adds a new player ship. Its index is the number of player ships added before it. */
+    void addPlayer(String fleetMemberId) {
+        totalContribution.addPlayer(fleetMemberId);
+        playerCount++;
+        damageTable.ensureCapacity(enemyCount, playerCount);
+        pendingDamageTable.ensureCapacity(enemyCount, playerCount);
+    }
+
+    /** Records damage dealt by [player] to [enemy] in the current interval. */
+    void addReceivedByEnemy(int enemy, int player, float hull, float armor, float shields) {
+        damageTable.addReceivedByEnemy(enemy, player, hull, armor, shields);
+    }
+
+    /** Records damage dealt by [enemy] to [player] in the current interval. */
+    void addDealtByEnemy(int enemy, int player, float hull, float armor, float shields) {
+        damageTable.addDealtByEnemy(enemy, player, hull, armor, shields);
+    }
+
+    /** Ends the current interval, which was [scale] times as long as COMBAT_UPDATE_INTERVAL.
+     *  Its damage is converted into contribution by subsequent calls to [process]. */
+    void endInterval(float scale) {
+        // Finish off the previous interval if it's still being processed
+        process(Integer.MAX_VALUE);
+        DamageTable temp = pendingDamageTable;
+        pendingDamageTable = damageTable;
+        damageTable = temp;
+        pendingEnemyCursor = 0;
+        pendingScale = scale;
+    }
+
+    /** Takes damage data for the last combat interval and converts
+     *  it into contributions for each ship in the player's fleet.
+     *  Only enemies that were involved in any damage, and only the player ships
+     *  that were involved with them, are visited. Processes at most [maxEnemies]
+     *  enemies, continuing where the previous call left off. */
+    void process(int maxEnemies) {
+        int end = (int) Math.min((long) pendingEnemyCursor + maxEnemies, pendingDamageTable.getEngagedEnemyCount());
+        if (pendingEnemyCursor >= end) {
+            return;
+        }
+        for (int i = pendingEnemyCursor; i < end; i++) {
+            int enemy = pendingDamageTable.getEngagedEnemy(i);
+            // Give the player ship that dealt the most hull/armor damage the ATTACK contribution
+            int attackWinner = addContributionToMostDamage(
+                enemy, true, hullAndArmor, ContributionType.ATTACK);
+            // Give the player ship that took the most hull/armor/shield damage the DEFENSE contribution,
+            // but exclude the ship that already received the ATTACK contribution.
+            int defenseWinner = addContributionToMostDamage(
+                enemy, false, hullArmorShield, ContributionType.DEFENSE);
+            // SUPPORT contribution only counts if the ship in question took hull or armor damage
+            if (attackWinner < 0) {
+                continue;
+            }
+            // For every other player ship that took or received damage from this ship,
+            // add SUPPORT contribution
+            for (int j = 0; j < pendingDamageTable.getParticipantCount(enemy); j++) {
+                int player = pendingDamageTable.getParticipant(enemy, j);
+                // Ignore the ATTACK and DEFENSE winners
+                if (player == attackWinner || player == defenseWinner) {
+                    continue;
+                }
+                float damageDealt = pendingDamageTable.combineReceivedByEnemy(enemy, player, hullArmorShield);
+                float damageTaken = pendingDamageTable.combineDealtByEnemy(enemy, player, hullArmorShield);
+                addContribution(enemy, player, damageDealt + damageTaken, ContributionType.SUPPORT);
+            }
+        }
+        pendingEnemyCursor = end;
+        // Reset the raw damage tables for the next cycle
+        if (pendingEnemyCursor >= pendingDamageTable.getEngagedEnemyCount()) {
+            pendingDamageTable.clear();
+            pendingEnemyCursor = 0;
+        }
+    }
+
+    /** Finishes processing the pending interval, then returns the total contribution
+     *  as a snapshot and clears everything. The current, unfinished interval is dropped. */
+    EngagementContributionSnapshot finish() {
+        process(Integer.MAX_VALUE);
+        EngagementContributionSnapshot snapshot = totalContribution.snapshot();
+        clear();
+        return snapshot;
+    }
+
+    void clear() {
+        damageTable.clear();
+        pendingDamageTable.clear();
+        pendingEnemyCursor = 0;
+        pendingScale = 1f;
+        totalContribution.clear();
+        enemyCount = playerCount = 0;
+    }
+
+    /** Number of enemy/player pairs that have damage in the current interval, which is
+     *  how many entries [process] will visit once the interval ends. */
+    int getEngagedPairCount() {
+        int pairs = 0;
+        for (int i = 0; i < damageTable.getEngagedEnemyCount(); i++) {
+            pairs += damageTable.getParticipantCount(damageTable.getEngagedEnemy(i));
+        }
+        return pairs;
+    }
+
+    /** Number of times the damage tables have (re)allocated memory. */
+    int getAllocations() {
+        return damageTable.getAllocations() + pendingDamageTable.getAllocations();
+    }
+
+    /** Find the player ship with the highest damage dealt to [enemy] (if [dealtByPlayer]) or taken from
+     *  [enemy] (otherwise); then, use that damage to add contribution of [type] to that ship for [enemy].
+     *  Returns the winner's index, or -1 if there was no such damage. */
+    private int addContributionToMostDamage(int enemy, boolean dealtByPlayer, DamageCombiner combiner, ContributionType type) {
+        int winner = -1;
+        float winnerDamage = 0f;
+        for (int i = 0; i < pendingDamageTable.getParticipantCount(enemy); i++) {
+            int player = pendingDamageTable.getParticipant(enemy, i);
+            float damage = dealtByPlayer
+                    ? pendingDamageTable.combineReceivedByEnemy(enemy, player, combiner)
+                    : pendingDamageTable.combineDealtByEnemy(enemy, player, combiner);
+            if (damage > winnerDamage) {
+                winner = player;
+                winnerDamage = damage;
+            }
+        }
+        if (winner >= 0) {
+            addContribution(enemy, winner, winnerDamage, type);
+        }
+        return winner;
+    }
+
+    /** Adds damageToContribution([rawDmg]) to totalContribution[type][enemy][player].
+     *  An interval that is k times as long as COMBAT_UPDATE_INTERVAL is counted as k
+     *  intervals of the normal length with the damage spread evenly between them,
+     *  so that changing the interval length doesn't skew DEFENSE and SUPPORT contribution. */
+    private void addContribution(int enemy, int player, float rawDmg, ContributionType type) {
+        float contribAmt = pendingScale * damageToContribution(rawDmg / pendingScale, type);
+        if (contribAmt <= 0f) {
+            return;
+        }
+        totalContribution.add(type, enemy, player, contribAmt);
+    }
+
+    /** Turns raw damage into contribution amount. Generally substantially
+     *  less than the raw damage, in order to balance dealing a lot of damage
+     *  in a short time with dealing less damage over a longer period of time. */
+    static float damageToContribution(float damage, ContributionType contribType) {
+        if (damage <= 0f) {
+            return 0f;
+        }
+        switch (contribType) {
+            case ATTACK: return damage;
+            case DEFENSE: return (float) Math.sqrt(damage);
+            // Support uses log, so it highly favors
+            // doing or taking small amounts of damage over a long time
+            // over doing or taking a large amount of damage over a short time
+            case SUPPORT: return (float) Math.log(damage + 1f);
+            default: return 0f;
+        }
+    }
+}
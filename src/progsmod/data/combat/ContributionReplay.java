@@ -0,0 +1,161 @@
+package progsmod.data.combat;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import progsmod.data.combat.ContributionTracker.ContributionType;
+
+/** Recomputes the contribution for a combat from a log written by [CombatRecorder], without
+ *  needing the combat engine. Useful for checking that a change to the contribution math or to
+ *  the update interval doesn't change XP gains for a recorded battle, by comparing the snapshots
+ *  with those returned by [ContributionTracker.takeSnapshot]. */
+public final class ContributionReplay {
+
+    private ContributionReplay() {}
+
+    /** Replays [recording] using the same interval boundaries as the recorded combat.
+     *  Produces the same snapshot that the combat itself did. */
+    public static EngagementContributionSnapshot replay(String recording) throws IOException {
+        return replay(recording, 0f);
+    }
+
+    /** Replays [recording] as if the combat update interval had been fixed at [interval] seconds.
+     *  If [interval] isn't positive, uses the recorded interval boundaries instead. */
+    public static EngagementContributionSnapshot replay(String recording, float interval) throws IOException {
+        DataInputStream in = open(recording);
+        float baseInterval = in.readFloat();
+        boolean useRecordedIntervals = interval <= 0f;
+        float scale = useRecordedIntervals ? 1f : interval / baseInterval;
+        float nextUpdateTime = interval;
+
+        ContributionCalculator calculator = new ContributionCalculator();
+        while (true) {
+            byte tag = in.readByte();
+            switch (tag) {
+                case CombatRecorder.TAG_SHIP: {
+                    boolean isPlayer = in.readBoolean();
+                    String fleetMemberId = in.readUTF();
+                    in.readUTF(); // hull id, only there for readability
+                    if (fleetMemberId.isEmpty()) {
+                        fleetMemberId = null;
+                    }
+                    if (isPlayer) {
+                        calculator.addPlayer(fleetMemberId);
+                    }
+                    else {
+                        calculator.addEnemy(fleetMemberId);
+                    }
+                    break;
+                }
+                case CombatRecorder.TAG_DAMAGE: {
+                    float time = in.readFloat();
+                    boolean dealerIsPlayer = in.readBoolean();
+                    int dealer = in.readInt();
+                    int dealerOwner = in.readInt();
+                    boolean receiverIsPlayer = in.readBoolean();
+                    int receiver = in.readInt();
+                    int receiverOwner = in.readInt();
+                    float hull = in.readFloat(), armor = in.readFloat(), shields = in.readFloat();
+                    if (!useRecordedIntervals) {
+                        while (time >= nextUpdateTime) {
+                            calculator.endInterval(scale);
+                            nextUpdateTime += interval;
+                        }
+                    }
+                    // Same checks as ContributionTracker.registerDamage
+                    if (dealerOwner + receiverOwner != 1 || dealerIsPlayer == receiverIsPlayer) {
+                        break;
+                    }
+                    if (receiverIsPlayer) {
+                        calculator.addDealtByEnemy(dealer, receiver, hull, armor, shields);
+                    }
+                    else {
+                        calculator.addReceivedByEnemy(receiver, dealer, hull, armor, shields);
+                    }
+                    break;
+                }
+                case CombatRecorder.TAG_INTERVAL: {
+                    in.readFloat();
+                    float recordedScale = in.readFloat();
+                    if (useRecordedIntervals) {
+                        calculator.endInterval(recordedScale);
+                    }
+                    break;
+                }
+                case CombatRecorder.TAG_END:
+                    return calculator.finish();
+                default:
+                    throw new IOException("Unknown record in combat recording: " + tag);
+            }
+        }
+    }
+
+    /** Returns the normal combat update interval, COMBAT_UPDATE_INTERVAL, at the time [recording] was made. */
+    public static float getBaseInterval(String recording) throws IOException {
+        return open(recording).readFloat();
+    }
+
+    /** Replays [recording] both with its recorded interval boundaries and with the interval fixed at its
+     *  normal length, where no scaling is involved, and returns the largest difference between the two
+     *  in any player ship's share of the combat XP, relative to that ship's share with the normal interval;
+     *  see [getXPShares]. A ship that only gets XP in one of the two counts as infinitely different.
+     *  With the adaptive interval on, this is how far the scaling of longer intervals strays from what
+     *  the normal interval would give. */
+    public static float getMaxRelativeXPShareDifference(String recording, float[] typeFractions) throws IOException {
+        float[] recorded = getXPShares(replay(recording), typeFractions);
+        float[] fixed = getXPShares(replay(recording, getBaseInterval(recording)), typeFractions);
+        float maxDifference = 0f;
+        for (int i = 0; i < recorded.length; i++) {
+            if (fixed[i] <= 0f) {
+                if (recorded[i] > 0f) {
+                    return Float.POSITIVE_INFINITY;
+                }
+                continue;
+            }
+            maxDifference = Math.max(maxDifference, Math.abs(recorded[i] - fixed[i]) / fixed[i]);
+        }
+        return maxDifference;
+    }
+
+    /** Returns the fraction of the combat XP that each player ship in [snapshot] would get, indexed by player,
+     *  if every enemy ship were worth the same XP and [typeFractions] of it, indexed by contribution type,
+     *  went to each type of contribution. Splits the XP the same way [EngagementListener] does. */
+    public static float[] getXPShares(EngagementContributionSnapshot snapshot, float[] typeFractions) {
+        ContributionType[] types = ContributionType.values();
+        float[] shares = new float[snapshot.getPlayerCount()];
+        float total = 0f;
+        for (int enemy = 0; enemy < snapshot.getEnemyCount(); enemy++) {
+            for (ContributionType type : types) {
+                float typeTotal = snapshot.getTotal(type, enemy);
+                if (typeTotal <= 0f) {
+                    continue;
+                }
+                for (int player = 0; player < shares.length; player++) {
+                    float xp = typeFractions[type.ordinal()] * snapshot.get(type, enemy, player) / typeTotal;
+                    shares[player] += xp;
+                    total += xp;
+                }
+            }
+        }
+        if (total > 0f) {
+            for (int player = 0; player < shares.length; player++) {
+                shares[player] /= total;
+            }
+        }
+        return shares;
+    }
+
+    /** Opens [recording] and reads past its header. */
+    private static DataInputStream open(String recording) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(CombatRecorder.decode(recording)));
+        if (in.readInt() != CombatRecorder.MAGIC) {
+            throw new IOException("Not a combat recording");
+        }
+        int version = in.readInt();
+        if (version != CombatRecorder.VERSION) {
+            throw new IOException("Unsupported combat recording version: " + version);
+        }
+        return in;
+    }
+}
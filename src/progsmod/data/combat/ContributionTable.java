@@ -0,0 +1,84 @@
+package progsmod.data.combat;
+
+import progsmod.data.combat.ContributionTracker.ContributionType;
+
+/** Total contribution of each type gained by each player ship for each enemy ship
+ *  over a combat, stored as one flat float matrix per contribution type.
+ *  Entry [enemy][player] is at offset enemy * playerCapacity + player.
+ *  Ships are identified by their fleet member ids once the combat is handed off
+ *  with [snapshot]. */
+class ContributionTable {
+
+    private final float[][] contribution = new float[ContributionType.values().length][0];
+    private String[] enemyFleetMemberIds = new String[0];
+    private String[] playerFleetMemberIds = new String[0];
+    private int enemyCount = 0;
+    private int playerCount = 0;
+    private int enemyCapacity = 0;
+    private int playerCapacity = 0;
+
+    /** Adds a new enemy ship to the table. Its index is the previous enemy count. */
+    void addEnemy(String fleetMemberId) {
+        ensureCapacity(enemyCount + 1, playerCount);
+        enemyFleetMemberIds[enemyCount++] = fleetMemberId;
+    }
+
+    /** Adds a new player ship to the table. Its index is the previous player count. */
+    void addPlayer(String fleetMemberId) {
+        ensureCapacity(enemyCount, playerCount + 1);
+        playerFleetMemberIds[playerCount++] = fleetMemberId;
+    }
+
+    void add(ContributionType type, int enemy, int player, float amount) {
+        contribution[type.ordinal()][enemy * playerCapacity + player] += amount;
+    }
+
+    /** Copies the table into a compact, immutable snapshot. */
+    EngagementContributionSnapshot snapshot() {
+        String[] enemies = new String[enemyCount];
+        System.arraycopy(enemyFleetMemberIds, 0, enemies, 0, enemyCount);
+        String[] players = new String[playerCount];
+        System.arraycopy(playerFleetMemberIds, 0, players, 0, playerCount);
+        float[][] compact = new float[contribution.length][enemyCount * playerCount];
+        for (int type = 0; type < contribution.length; type++) {
+            for (int i = 0; i < enemyCount; i++) {
+                System.arraycopy(contribution[type], i * playerCapacity, compact[type], i * playerCount, playerCount);
+            }
+        }
+        return new EngagementContributionSnapshot(enemies, players, compact);
+    }
+
+    void clear() {
+        for (int i = 0; i < contribution.length; i++) {
+            contribution[i] = new float[0];
+        }
+        enemyFleetMemberIds = new String[0];
+        playerFleetMemberIds = new String[0];
+        enemyCount = playerCount = enemyCapacity = playerCapacity = 0;
+    }
+
+    /** Makes sure that the table can hold at least [nEnemies] x [nPlayers] entries without reallocating. */
+    void ensureCapacity(int nEnemies, int nPlayers) {
+        if (nEnemies <= enemyCapacity && nPlayers <= playerCapacity) {
+            return;
+        }
+        // Only grow the dimension that overflowed; see DamageTable.ensureCapacity
+        int newEnemyCapacity = nEnemies <= enemyCapacity ? enemyCapacity : Math.max(nEnemies, 2 * enemyCapacity);
+        int newPlayerCapacity = nPlayers <= playerCapacity ? playerCapacity : Math.max(nPlayers, 2 * playerCapacity);
+        for (int type = 0; type < contribution.length; type++) {
+            float[] newTable = new float[newEnemyCapacity * newPlayerCapacity];
+            for (int i = 0; i < enemyCount; i++) {
+                System.arraycopy(contribution[type], i * playerCapacity, newTable, i * newPlayerCapacity, playerCount);
+            }
+            contribution[type] = newTable;
+        }
+        String[] newEnemyFleetMemberIds = new String[newEnemyCapacity];
+        System.arraycopy(enemyFleetMemberIds, 0, newEnemyFleetMemberIds, 0, enemyCount);
+        enemyFleetMemberIds = newEnemyFleetMemberIds;
+        String[] newPlayerFleetMemberIds = new String[newPlayerCapacity];
+        System.arraycopy(playerFleetMemberIds, 0, newPlayerFleetMemberIds, 0, playerCount);
+        playerFleetMemberIds = newPlayerFleetMemberIds;
+        enemyCapacity = newEnemyCapacity;
+        playerCapacity = newPlayerCapacity;
+    }
+}
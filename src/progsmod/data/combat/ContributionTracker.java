@@ -1,12 +1,14 @@
 package progsmod.data.combat;
 
-import java.util.EnumMap;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.fs.starfarer.api.Global;
 import com.fs.starfarer.api.combat.*;
 import com.fs.starfarer.api.combat.listeners.ApplyDamageResultAPI;
 import com.fs.starfarer.api.combat.listeners.DamageListener;
@@ -16,74 +18,236 @@ import com.fs.starfarer.api.mission.FleetSide;
 import util.SModUtils;
 public class ContributionTracker extends BaseEveryFrameCombatPlugin {
 
-    HullAndArmorCombiner hullAndArmor = new HullAndArmorCombiner();
-    HullArmorShieldCombiner hullArmorShield = new HullArmorShieldCombiner();
+    /** Base ships on each side, indexed by [ShipHandle.index]. */
+    private final List<ShipHandle> playerShips = new ArrayList<>();
+    private final List<ShipHandle> enemyShips = new ArrayList<>();
+    /** Base ships on each side that are still in play, in no particular order. */
+    private final List<ShipHandle> activePlayerShips = new ArrayList<>();
+    private final List<ShipHandle> activeEnemyShips = new ArrayList<>();
+    /** Ships that have already been picked up by [updateShipList]. */
+    private final Set<String> trackedShips = new HashSet<>();
+    /** Number of entries of each side's ever-deployed list that [updateShipList] has already processed. */
+    private int playerDeployedCount = 0;
+    private int enemyDeployedCount = 0;
 
-    private final Set<String> playerShips = new HashSet<>();
-    private final Set<String> enemyShips = new HashSet<>();
-    private static final Map<String, String> shipToFleetMemberMap = new HashMap<>();
-
-    public static Map<String, String> getShipToFleetMemberMap() {
-        return shipToFleetMemberMap;
-    }
-
-    // For each enemy ship, the amount of each type of damage
-    // dealt by each player ship. Stored in the order 
-    //    [hull, armor, shields]
-    // Resets each combat update interval
-    private final Map<String, Map<String, float[]>> damageReceivedByEnemy = new HashMap<>();
-    // For each enemy ship, the amount of each type of damage
-    // dealt to each player ship. Stored in the order
-    //    [hull, armor, shields]
-    // Resets each combat update interval
-    private final Map<String, Map<String, float[]>> damageDealtByEnemy = new HashMap<>();
-    
-    // totalContribution[c][i][j] is the total contribution of type [c]
-    // for enemy ship [i] gained by player ship [j] over all combat intervals.
-    // ATTACK contribution is gained for an interval by dealing the most 
-    //   combined hull and armor damage to an enemy ship;
-    // DEFENSE contribution is gained for an interval by taking the most
-    //   combined hull, armor, and shields damage from an enemy ship;
-    // SUPPORT contribution is gained for an interval by dealing or taking
-    //   any hull, armor, or shields damage to or from an enemy ship but
-    //   not qualifying for ATTACK or DEFENSE contribution
-    // SUPPORT contribution is only gained during intervals where the enemy ship in question
-    // receives hull or armor damage.
+    // Converts damage between ships into contribution; see [ContributionCalculator]
+    // for how each type of contribution is gained.
+    // Ship indices in the calculator are the same as the ships' [ShipHandle.index].
     public enum ContributionType {ATTACK, DEFENSE, SUPPORT}
-    private static final Map<ContributionType, Map<String, Map<String, Float>>> totalContribution = new EnumMap<>(ContributionType.class);
+    private final ContributionCalculator calculator = new ContributionCalculator();
+    /** Records this combat's damage events if RECORD_COMBAT_DAMAGE is set; null otherwise. */
+    private CombatRecorder recorder;
+    /** Prefix of the common storage files that combat recordings are written to; each recording's
+     *  file name is this followed by "_" and the time it was written, in milliseconds. */
+    public static final String RECORDING_FILE_NAME = "progsmod_combat_recording";
+    /** Common storage file listing the recordings that are kept, oldest first, one per line. */
+    public static final String RECORDING_INDEX_FILE_NAME = "progsmod_combat_recordings";
+    /** Number of recordings kept; older ones are deleted as new ones are written. */
+    private static final int MAX_RECORDINGS = 10;
+
+    /** The tracker for the combat currently in progress, if its contribution hasn't been handed off yet. */
+    private static ContributionTracker activeTracker;
+    /** Contribution from the last finished combat that hasn't been picked up by the campaign side yet. */
+    private static EngagementContributionSnapshot lastSnapshot;
 
-    public static Map<ContributionType, Map<String, Map<String, Float>>> getContributionTable() {
-        return totalContribution;
+    /** Returns the contribution gained in the most recent combat and forgets about it, so that
+     *  it's only counted once. Returns an empty snapshot if there is nothing new. */
+    public static EngagementContributionSnapshot takeSnapshot() {
+        if (activeTracker != null) {
+            activeTracker.finishCombat();
+        }
+        EngagementContributionSnapshot snapshot = lastSnapshot;
+        lastSnapshot = null;
+        return snapshot == null ? EngagementContributionSnapshot.EMPTY : snapshot;
     }
 
     private CombatEngineAPI engine;
     private float time = 0f;
     private float lastUpdateTime = 0f;
+    /** Length of the current combat update interval. Only differs from
+     *  COMBAT_UPDATE_INTERVAL if the adaptive interval is enabled. */
+    private float updateInterval = 0f;
+    /** Number of active player/enemy ship pairs at which the adaptive interval
+     *  equals COMBAT_UPDATE_INTERVAL; e.g. a 10 vs 10 battle. */
+    private static final float ADAPTIVE_INTERVAL_REFERENCE_PAIRS = 100f;
+    /** Whether the damage tables have been sized to the fleets in this combat yet. */
+    private boolean capacityReserved = false;
+    /** Shared by every tracked ship, so that picking up new ships doesn't allocate listeners. */
+    private final ProgSModDamageListener damageListener = new ProgSModDamageListener(this);
+    /** Number of damage events that made it into the damage tables this combat. */
+    private long damageEventCount = 0;
+    /** Whether this combat's contribution has already been handed off. */
+    private boolean finished = false;
+    /** Whether to time the damage and combat update paths this combat; see PROFILE_COMBAT_TRACKER. */
+    private boolean profile = false;
+    /** Total time spent handling damage events and turning damage into contribution, in nanoseconds. */
+    private long registerDamageNanos = 0;
+    private long combatUpdateNanos = 0;
+    /** Number of intervals that have ended this combat. */
+    private int intervalCount = 0;
 
-    /** Maps wings and modules to their parent ship or station. */
-    private final Map<String, ShipAPI> baseShipTable = new HashMap<>();
+    /** Maps ships, wings and modules to the handle of their parent ship or station.
+     *  Ships that should be ignored, as well as their wings and modules, map to [IGNORED].
+     *  Modules, fighters and drones are filled in ahead of time by [linkModules] and [linkCraft],
+     *  outside of damage handling; [getHandle] only has to resolve craft that deal or take damage
+     *  in the frame they were launched in, and ships that join the combat before the next interval. */
+    private final Map<String, ShipHandle> baseShipTable = new HashMap<>();
+    /** Fighters and drones that have an entry in [baseShipTable]. Carriers go through
+     *  a lot of these over a long combat, so [evictDeadCraft] drops the entries of
+     *  those that are no longer in play to keep the table from growing without bound. */
+    private final List<ShipAPI> linkedCraft = new ArrayList<>();
+    /** Ships and modules in play that have fighter bays or drones, and the handles of their base ships.
+     *  Their newly launched craft are linked every frame by [linkLaunchedCraft]. */
+    private final List<ShipAPI> launchers = new ArrayList<>();
+    private final List<ShipHandle> launcherHandles = new ArrayList<>();
+    /** Largest size [baseShipTable] has reached this combat. */
+    private int peakBaseShipTableSize = 0;
+    private static final ShipHandle IGNORED = new ShipHandle(null);
 
     @Override
     public void init(CombatEngineAPI engine) {
         // Reset data for a new combat
         playerShips.clear();
         enemyShips.clear();
+        activePlayerShips.clear();
+        activeEnemyShips.clear();
+        trackedShips.clear();
+        playerDeployedCount = 0;
+        enemyDeployedCount = 0;
         baseShipTable.clear();
-        shipToFleetMemberMap.clear();
-        damageReceivedByEnemy.clear();
-        damageDealtByEnemy.clear();
-        totalContribution.clear();
-        for (ContributionType type : ContributionType.values()) {
-            totalContribution.put(type, new HashMap<String, Map<String, Float>>());
-        }
+        linkedCraft.clear();
+        launchers.clear();
+        launcherHandles.clear();
+        peakBaseShipTableSize = 0;
+        calculator.clear();
         time = 0f;
+        lastUpdateTime = 0f;
+        updateInterval = SModUtils.Constants.COMBAT_UPDATE_INTERVAL;
+        capacityReserved = false;
+        finished = false;
+        damageEventCount = 0;
+        profile = SModUtils.Constants.PROFILE_COMBAT_TRACKER;
+        registerDamageNanos = 0;
+        combatUpdateNanos = 0;
+        intervalCount = 0;
         this.engine = engine;
+        recorder = SModUtils.Constants.RECORD_COMBAT_DAMAGE && !engine.isSimulation()
+                ? new CombatRecorder(SModUtils.Constants.COMBAT_UPDATE_INTERVAL)
+                : null;
+        if (!engine.isSimulation()) {
+            activeTracker = this;
+            lastSnapshot = null;
+        }
+    }
+
+    /** Hands off the contribution gained in this combat as a snapshot and releases the live tables. */
+    private void finishCombat() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (activeTracker != this) {
+            return;
+        }
+        // The pending interval is complete, so it still counts
+        long start = profile ? System.nanoTime() : 0;
+        lastSnapshot = calculator.finish();
+        if (profile) {
+            combatUpdateNanos += System.nanoTime() - start;
+            logProfile();
+        }
+        activeTracker = null;
+        // Drop every reference to the combat's ships, since this tracker may outlive the combat
+        baseShipTable.clear();
+        linkedCraft.clear();
+        launchers.clear();
+        launcherHandles.clear();
+        playerShips.clear();
+        enemyShips.clear();
+        activePlayerShips.clear();
+        activeEnemyShips.clear();
+        trackedShips.clear();
+        if (recorder != null) {
+            if (recorder.isTruncated()) {
+                Global.getLogger(ContributionTracker.class).warn(
+                        "Combat recording reached its size limit; later damage events were not recorded");
+            }
+            saveRecording(recorder.finish(time));
+            recorder = null;
+        }
+    }
+
+    /** Writes [recording] to a new common storage file and deletes the oldest recordings beyond [MAX_RECORDINGS]. */
+    private static void saveRecording(String recording) {
+        String fileName = RECORDING_FILE_NAME + "_" + System.currentTimeMillis();
+        try {
+            Global.getSettings().writeTextFileToCommon(fileName, recording);
+            List<String> fileNames = new ArrayList<>();
+            String index = Global.getSettings().readTextFileFromCommon(RECORDING_INDEX_FILE_NAME);
+            if (index != null) {
+                for (String line : index.split("\n")) {
+                    if (!line.trim().isEmpty()) {
+                        fileNames.add(line.trim());
+                    }
+                }
+            }
+            fileNames.add(fileName);
+            while (fileNames.size() > MAX_RECORDINGS) {
+                Global.getSettings().deleteTextFileFromCommon(fileNames.remove(0));
+            }
+            StringBuilder newIndex = new StringBuilder();
+            for (String name : fileNames) {
+                newIndex.append(name).append('\n');
+            }
+            Global.getSettings().writeTextFileToCommon(RECORDING_INDEX_FILE_NAME, newIndex.toString());
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Logs how much time the tracker spent on this combat, so that changes to
+     *  the damage and combat update paths can be compared on real battles.
+     *  [TrackerBenchmark] in bench/ does the same for stub battles outside the game. */
+    private void logProfile() {
+        Global.getLogger(ContributionTracker.class).info(String.format(
+                "Combat tracker: %d player and %d enemy ships, %d damage events, %d intervals, " +
+                "%.3f ms handling damage (%.0f ns per event), %.3f ms on interval updates, " +
+                "%d damage table allocations, %d base ship table entries at peak and %d at the end",
+                playerShips.size(),
+                enemyShips.size(),
+                damageEventCount,
+                intervalCount,
+                registerDamageNanos / 1e6,
+                damageEventCount == 0 ? 0.0 : (double) registerDamageNanos / damageEventCount,
+                combatUpdateNanos / 1e6,
+                calculator.getAllocations(),
+                Math.max(peakBaseShipTableSize, baseShipTable.size()),
+                baseShipTable.size()));
+    }
+
+    /** Number of damage events recorded into the per-interval damage tables this combat. */
+    public long getDamageEventCount() {
+        return damageEventCount;
+    }
+
+    /** Number of times the per-interval damage tables have had to allocate memory this combat.
+     *  Doesn't change while damage is being recorded unless a new ship joins the combat
+     *  beyond the capacity reserved at the start, so a count that stays constant across
+     *  [getDamageEventCount] increases means the per-hit path is allocation-free. */
+    public int getDamageTableAllocationCount() {
+        return calculator.getAllocations();
     }
 
     @Override
     public void advance(float amount, List<InputEventAPI> events) {
         
-        if (engine == null || engine.isPaused() || engine.isSimulation()) {
+        if (engine == null || finished || engine.isPaused() || engine.isSimulation()) {
+            return;
+        }
+
+        if (engine.isCombatOver()) {
+            finishCombat();
             return;
         }
 
@@ -92,137 +256,378 @@ public class ContributionTracker extends BaseEveryFrameCombatPlugin {
             return;
         }
 
+        if (!capacityReserved) {
+            reserveCapacity();
+            capacityReserved = true;
+            // Pick up the ships that start the combat deployed, along with their craft and modules,
+            // rather than resolving them on their first damage event
+            updateShipList(FleetSide.PLAYER);
+            updateShipList(FleetSide.ENEMY);
+        }
+
+        long start = profile ? System.nanoTime() : 0;
         // At the end of a combat interval, for each eligible enemy ship that
         // took hull or armor damage, give contributions to eligible
         // player ships.
-        if (time - lastUpdateTime >= SModUtils.Constants.COMBAT_UPDATE_INTERVAL) {
-            performCombatUpdate();
+        if (time - lastUpdateTime >= updateInterval) {
+            intervalCount++;
+            float scale = updateInterval / SModUtils.Constants.COMBAT_UPDATE_INTERVAL;
+            calculator.endInterval(scale);
+            if (recorder != null) {
+                recorder.recordInterval(time, scale);
+            }
+            removeInactiveShips(activePlayerShips);
+            removeInactiveShips(activeEnemyShips);
             updateShipList(FleetSide.PLAYER);
             updateShipList(FleetSide.ENEMY);
+            evictDeadCraft();
+            peakBaseShipTableSize = Math.max(peakBaseShipTableSize, baseShipTable.size());
             lastUpdateTime = time;
+            updateInterval = computeUpdateInterval();
+        }
+        linkLaunchedCraft();
+        int budget = SModUtils.Constants.COMBAT_UPDATE_ENEMIES_PER_FRAME;
+        calculator.process(budget <= 0 ? Integer.MAX_VALUE : budget);
+        if (profile) {
+            combatUpdateNanos += System.nanoTime() - start;
         }
         time += amount;
     }
     
-    /** Looks through the deployed fleet members for [side]
-     *  and adds all ships not already in [playerShips] (if side == 0) 
-     *  or [enemyShips] (if side == 1) to the respective set. */
+    /** Returns the length of the next combat update interval. If the adaptive interval is enabled,
+     *  this grows with the square root of the number of active player/enemy ship pairs,
+     *  so that large battles do fewer, longer updates and small skirmishes do more, shorter ones. */
+    private float computeUpdateInterval() {
+        float base = SModUtils.Constants.COMBAT_UPDATE_INTERVAL;
+        if (!SModUtils.Constants.ADAPTIVE_COMBAT_UPDATE_INTERVAL) {
+            return base;
+        }
+        float pairs = (float) activePlayerShips.size() * activeEnemyShips.size();
+        float interval = base * (float) Math.sqrt(pairs / ADAPTIVE_INTERVAL_REFERENCE_PAIRS);
+        return Math.max(SModUtils.Constants.COMBAT_UPDATE_INTERVAL_MIN,
+                Math.min(SModUtils.Constants.COMBAT_UPDATE_INTERVAL_MAX, interval));
+    }
+
+    /** Looks through the fleet members for [side] that were deployed since the last call
+     *  and registers all new base ships with [playerShips] (if side == 0)
+     *  or [enemyShips] (if side == 1). The list of ever-deployed members only grows,
+     *  so only the entries past the ones already seen need to be processed. */
     private void updateShipList(FleetSide side) {
-        Set<String> list = side == FleetSide.PLAYER ? playerShips : enemyShips;
-        for (DeployedFleetMemberAPI dfm : engine.getFleetManager(side).getDeployedCopyDFM()) {
+        boolean isPlayer = side == FleetSide.PLAYER;
+        List<DeployedFleetMemberAPI> deployed = engine.getFleetManager(side).getAllEverDeployedCopy();
+        int start = isPlayer ? playerDeployedCount : enemyDeployedCount;
+        // Shouldn't happen, but start over rather than miss ships if the list ever shrinks
+        if (deployed.size() < start) {
+            start = 0;
+        }
+        if (isPlayer) {
+            playerDeployedCount = deployed.size();
+        }
+        else {
+            enemyDeployedCount = deployed.size();
+        }
+        for (int i = start; i < deployed.size(); i++) {
+            DeployedFleetMemberAPI dfm = deployed.get(i);
             // We don't care about damage that fighters take
             if (dfm.isFighterWing() || dfm.getShip() == null) {
                 continue;
             }
             ShipAPI ship = dfm.getShip();
             String shipId = ship.getId();
-            if (!list.contains(shipId)) {
-                list.add(shipId);
-                ShipAPI baseShip = getBaseShip(ship);
-                if (baseShip != null && baseShip.getFleetMember() != null) {
-                    shipToFleetMemberMap.put(shipId, baseShip.getFleetMemberId());
+            if (!trackedShips.contains(shipId)) {
+                trackedShips.add(shipId);
+                ShipHandle handle = getHandle(ship);
+                if (handle != null) {
+                    linkModules(ship, handle);
+                    addLaunchers(ship, handle);
+                }
+                if (handle == IGNORED) {
+                    continue;
+                }
+                if (handle != null && handle.ship == ship) {
+                    register(handle, isPlayer);
                 }
                 // Note: DamageListener listens for damage taken only
-                ship.addListener(new ProgSModDamageListener(this));
+                ship.addListener(damageListener);
+            }
+        }
+    }
+
+    /** Maps the modules of [ship], and their modules in turn, to [handle], so that damage
+     *  dealt by or to them doesn't need to be resolved by [getHandle]. Modules don't change
+     *  over a combat, so this only needs to happen once per base ship. */
+    private void linkModules(ShipAPI ship, ShipHandle handle) {
+        for (ShipAPI module : ship.getChildModulesCopy()) {
+            if (link(module, handle)) {
+                linkModules(module, handle);
+            }
+        }
+    }
+
+    /** Maps the fighters and drones currently launched by [ship] to [handle]. */
+    private void linkCraft(ShipAPI ship, ShipHandle handle) {
+        for (FighterWingAPI wing : ship.getAllWings()) {
+            for (ShipAPI fighter : wing.getWingMembers()) {
+                if (link(fighter, handle)) {
+                    linkedCraft.add(fighter);
+                }
+            }
+        }
+        List<ShipAPI> drones = ship.getDeployedDrones();
+        if (drones != null) {
+            for (ShipAPI drone : drones) {
+                if (link(drone, handle)) {
+                    linkedCraft.add(drone);
+                }
+            }
+        }
+    }
+
+    /** Links the craft currently launched by [ship] and its modules to [handle], and adds those of them
+     *  that have fighter bays or drones to [launchers], unless they're ignored. Modules don't change over
+     *  a combat, so this only needs to happen once per base ship. */
+    private void addLaunchers(ShipAPI ship, ShipHandle handle) {
+        if (ship.getNumFighterBays() > 0 || ship.getDeployedDrones() != null) {
+            linkCraft(ship, handle);
+            if (handle != IGNORED) {
+                launchers.add(ship);
+                launcherHandles.add(handle);
+            }
+        }
+        for (ShipAPI module : ship.getChildModulesCopy()) {
+            addLaunchers(module, handle);
+        }
+    }
+
+    /** Links the craft that [launchers] launched since the last frame, so that damage handling
+     *  finds them in [baseShipTable], and forgets the launchers that are no longer in play. */
+    private void linkLaunchedCraft() {
+        for (int i = launchers.size() - 1; i >= 0; i--) {
+            ShipAPI launcher = launchers.get(i);
+            if (launcher.isAlive() && engine.isEntityInPlay(launcher)) {
+                linkCraft(launcher, launcherHandles.get(i));
+                continue;
+            }
+            // Order doesn't matter, so just swap in the last element
+            int last = launchers.size() - 1;
+            launchers.set(i, launchers.get(last));
+            launchers.remove(last);
+            launcherHandles.set(i, launcherHandles.get(last));
+            launcherHandles.remove(last);
+        }
+    }
+
+    /** Removes the fighters and drones that are no longer in play from [baseShipTable].
+     *  If one of them somehow deals or takes damage again, [getHandle] just resolves it again. */
+    private void evictDeadCraft() {
+        for (int i = linkedCraft.size() - 1; i >= 0; i--) {
+            ShipAPI craft = linkedCraft.get(i);
+            if (engine.isEntityInPlay(craft)) {
+                continue;
+            }
+            baseShipTable.remove(craft.getId());
+            // Order doesn't matter, so just swap in the last element
+            int last = linkedCraft.size() - 1;
+            linkedCraft.set(i, linkedCraft.get(last));
+            linkedCraft.remove(last);
+        }
+    }
+
+    /** Number of ships, wings and modules currently mapped to a base ship. Stays roughly
+     *  proportional to the number of craft in play, however long the combat goes on. */
+    public int getBaseShipTableSize() {
+        return baseShipTable.size();
+    }
+
+    /** Maps [child] to [handle] in [baseShipTable], unless it's already there.
+     *  Returns whether [child] was newly mapped. */
+    private boolean link(ShipAPI child, ShipHandle handle) {
+        if (child == null || baseShipTable.containsKey(child.getId())) {
+            return false;
+        }
+        baseShipTable.put(child.getId(), isIgnored(child) ? IGNORED : handle);
+        return true;
+    }
+
+    /** Sizes the damage tables to hold every ship that either side could deploy,
+     *  so that they don't need to grow while damage is being recorded. */
+    private void reserveCapacity() {
+        CombatFleetManagerAPI playerManager = engine.getFleetManager(FleetSide.PLAYER);
+        CombatFleetManagerAPI enemyManager = engine.getFleetManager(FleetSide.ENEMY);
+        int nPlayers = playerManager.getDeployedCopy().size() + playerManager.getReservesCopy().size();
+        int nEnemies = enemyManager.getDeployedCopy().size() + enemyManager.getReservesCopy().size();
+        calculator.ensureCapacity(nEnemies, nPlayers);
+    }
+
+    /** Assigns [handle] the next free index on its side, if it doesn't already have one,
+     *  and grows the damage tables to fit. Also marks the handle as active. */
+    private void register(ShipHandle handle, boolean isPlayer) {
+        if (handle.index < 0) {
+            List<ShipHandle> list = isPlayer ? playerShips : enemyShips;
+            handle.isPlayer = isPlayer;
+            handle.index = list.size();
+            list.add(handle);
+            String fleetMemberId = handle.ship.getFleetMember() == null ? null : handle.ship.getFleetMemberId();
+            if (isPlayer) {
+                calculator.addPlayer(fleetMemberId);
+            }
+            else {
+                calculator.addEnemy(fleetMemberId);
             }
+            if (recorder != null) {
+                recorder.recordShip(isPlayer, fleetMemberId, handle.ship.getHullSpec().getHullId());
+            }
+        }
+        if (!handle.isActive) {
+            handle.isActive = true;
+            (handle.isPlayer ? activePlayerShips : activeEnemyShips).add(handle);
         }
     }
 
-    private ShipAPI getBaseShip(ShipAPI shipWingOrModule, ShipAPI shipWingOrModulePrevious) {
+    /** Removes ships that have been destroyed or have left the battlefield from [activeShips].
+     *  Ships that show up in the damage tables again are re-added by [register]. */
+    private void removeInactiveShips(List<ShipHandle> activeShips) {
+        for (int i = activeShips.size() - 1; i >= 0; i--) {
+            ShipHandle handle = activeShips.get(i);
+            if (handle.ship.isAlive() && engine.isEntityInPlay(handle.ship)) {
+                continue;
+            }
+            handle.isActive = false;
+            // Order doesn't matter, so just swap in the last element
+            int last = activeShips.size() - 1;
+            activeShips.set(i, activeShips.get(last));
+            activeShips.remove(last);
+        }
+    }
+
+    private ShipHandle getHandle(ShipAPI shipWingOrModule, ShipAPI shipWingOrModulePrevious) {
         // infinite recursion break
         if (shipWingOrModule == shipWingOrModulePrevious) {
-            return shipWingOrModule;
+            ShipHandle memo = baseShipTable.get(shipWingOrModule.getId());
+            return memo != null ? memo : new ShipHandle(shipWingOrModule);
         }
-        return getBaseShip(shipWingOrModule);
+        return getHandle(shipWingOrModule);
     }
 
-    /** If the argument is a ship, returns that ship.
-     *  If the argument is a wing, returns the wing's source ship.
-     *  If the argument is a module, returns the module's base ship/station. */
-    private ShipAPI getBaseShip(ShipAPI shipWingOrModule) {
+    /** If the argument is a ship, returns the handle of that ship.
+     *  If the argument is a wing, returns the handle of the wing's source ship.
+     *  If the argument is a module, returns the handle of the module's base ship/station. */
+    private ShipHandle getHandle(ShipAPI shipWingOrModule) {
         if (shipWingOrModule == null) {
             return null;
         }
-        ShipAPI memo = baseShipTable.get(shipWingOrModule.getId());
+        ShipHandle memo = baseShipTable.get(shipWingOrModule.getId());
         if (memo != null) {
             return memo;
         }
+        if (isIgnored(shipWingOrModule)) {
+            baseShipTable.put(shipWingOrModule.getId(), IGNORED);
+            return IGNORED;
+        }
         // The "ship" in question is a drone
         if (shipWingOrModule.getAIFlags().hasFlag(ShipwideAIFlags.AIFlags.DRONE_MOTHERSHIP)) {
-            ShipAPI base = getBaseShip(
-                    (ShipAPI) shipWingOrModule.getAIFlags().getCustom(ShipwideAIFlags.AIFlags.DRONE_MOTHERSHIP),
-                    shipWingOrModule);
+            ShipAPI mothership = (ShipAPI) shipWingOrModule.getAIFlags().getCustom(ShipwideAIFlags.AIFlags.DRONE_MOTHERSHIP);
+            ShipHandle base = getHandle(mothership, shipWingOrModule);
             baseShipTable.put(shipWingOrModule.getId(), base);
+            linkedCraft.add(shipWingOrModule);
+            // Its fellow drones were launched along with it, so link them now too
+            if (base != null && mothership != null && mothership.getDeployedDrones() != null) {
+                for (ShipAPI drone : mothership.getDeployedDrones()) {
+                    if (link(drone, base)) {
+                        linkedCraft.add(drone);
+                    }
+                }
+            }
             return base;
         }
         // Possible to have wings come from a module of a station
         // and maybe even have modules of modules? 
         // so function needs to be recursive
         if (shipWingOrModule.isFighter()) {
-            ShipAPI base = null;
+            ShipHandle base = null;
             if (shipWingOrModule.getWing() == null || 
                 shipWingOrModule.getWing().getSourceShip() == null) {
                 // If the fighter has no source ship but has a fleet member,
                 // just return the fighter itself
                 if (shipWingOrModule.getFleetMember() != null) {
-                    base = shipWingOrModule;
+                    base = new ShipHandle(shipWingOrModule);
                 }
             }
             else {
-                base = getBaseShip(
+                base = getHandle(
                         shipWingOrModule.getWing().getSourceShip(),
                         shipWingOrModule);
             }
             baseShipTable.put(shipWingOrModule.getId(), base);
+            linkedCraft.add(shipWingOrModule);
+            // The rest of its wing was launched along with it, so link it now too
+            if (base != null && shipWingOrModule.getWing() != null) {
+                for (ShipAPI member : shipWingOrModule.getWing().getWingMembers()) {
+                    if (link(member, base)) {
+                        linkedCraft.add(member);
+                    }
+                }
+            }
             return base; 
         }
         if (shipWingOrModule.isStationModule()) {
-            ShipAPI base = null;
+            ShipHandle base = null;
             if (shipWingOrModule.getParentStation() == null) {
                 // If the module has no parent station but has a fleet member,
                 // just return the module itself
                 if (shipWingOrModule.getFleetMember() != null) {
-                    base = shipWingOrModule;
+                    base = new ShipHandle(shipWingOrModule);
                 }
             }
             else {
-                base = getBaseShip(
+                base = getHandle(
                         shipWingOrModule.getParentStation(),
                         shipWingOrModule);
             }
             baseShipTable.put(shipWingOrModule.getId(), base);
             return base;
         }
-        baseShipTable.put(shipWingOrModule.getId(), shipWingOrModule);
-        return shipWingOrModule;
+        ShipHandle base = new ShipHandle(shipWingOrModule);
+        baseShipTable.put(shipWingOrModule.getId(), base);
+        return base;
     }
 
-    /** Assumes that [shipWingOrModuleId] already has an entry in
-     *  [baseShipTable], i.e. it dealt or received damage at least once. */
-    private String getBaseShipId(String shipWingOrModuleId) {
-        ShipAPI base = baseShipTable.get(shipWingOrModuleId);
-        return base == null ? null : base.getId();
+    /** Whether damage dealt by or to [ship] should not count towards contribution. */
+    private boolean isIgnored(ShipAPI ship) {
+        ShipHullSpecAPI spec = ship.getHullSpec();
+        if (SModUtils.Constants.IGNORED_DAMAGE_SOURCE_HULL_IDS.contains(spec.getHullId())) {
+            return true;
+        }
+        for (String tag : SModUtils.Constants.IGNORED_DAMAGE_SOURCE_HULL_TAGS) {
+            if (spec.hasTag(tag)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void registerDamage(Object source, CombatEntityAPI target, ApplyDamageResultAPI damage) {
+        if (finished) {
+            return;
+        }
         // Only care about ship to ship damage
         if (!(source instanceof ShipAPI) || !(target instanceof ShipAPI)) {
             return;
         }
-        ShipAPI dealer = (ShipAPI) source;
-        ShipAPI receiver = (ShipAPI) target;
-        // For some reason it seems like the game makes a temporary shuttle ship
-        // as the source if it doesn't know where the damage is coming from
-        // Ignore it here too
-        if (dealer.getHullSpec().getHullId().equals("shuttlepod")) {
+        ShipHandle dealerHandle = getHandle((ShipAPI) source);
+        ShipHandle receiverHandle = getHandle((ShipAPI) target);
+        // If any base ship is null, damage data can't be processed
+        if (dealerHandle == null || receiverHandle == null) {
             return;
         }
-        dealer = getBaseShip(dealer);
-        receiver = getBaseShip(receiver);
-        // If any base ship is null, damage data can't be processed
-        if (dealer == null || receiver == null) {
+        // For some reason it seems like the game makes a temporary shuttle ship
+        // as the source if it doesn't know where the damage is coming from.
+        // Ignore it, and any other configured fake sources, here too
+        if (dealerHandle == IGNORED || receiverHandle == IGNORED) {
             return;
         }
+        int dealerOwner = dealerHandle.ship.getOwner();
+        int receiverOwner = receiverHandle.ship.getOwner();
         // Ignore friendly fire.
         // Also ignore owner = 100 sources or target. 
         // Even though the listener seems to always give ships, ship husks
@@ -231,145 +636,49 @@ public class ContributionTracker extends BaseEveryFrameCombatPlugin {
         // Thus we only care about where one ship has owner=1 and
         // the other has owner=0, which happens iff the sum of owners
         // is 1.
-        if (dealer.getOwner() + receiver.getOwner() != 1) {
+        if (dealerOwner + receiverOwner != 1) {
             return;
         }
-        float[] damageList = new float[3];
-        damageList[0] = damage.getDamageToHull();
-        damageList[1] = damage.getTotalDamageToArmor();
-        damageList[2] = damage.getDamageToShields();
-        // Add the damage info to either enemyDealtBy or enemyDealtTo
-        if (receiver.getOwner() == 0) {
-            addToDamageTable(damageDealtByEnemy, dealer.getId(), receiver.getId(), damageList);
-        }
-        else {
-            addToDamageTable(damageReceivedByEnemy, receiver.getId(), dealer.getId(), damageList);
-        }
-    }
-
-    /** Adds [damage] to table[enemyShipId][playerShipId],
-     *  placing new tables where necessary. */
-    private void addToDamageTable(Map<String, Map<String, float[]>> table, String enemyShipId, String playerShipId, float[] damage) {
-        Map<String, float[]> subTable = table.get(enemyShipId);
-        if (subTable == null) {
-            subTable = new HashMap<>();
-            table.put(enemyShipId, subTable);
-        }
-        float[] oldDamage = subTable.get(playerShipId);
-        if (oldDamage == null) {
-            subTable.put(playerShipId, damage);
-        }
-        else {
-            oldDamage[0] += damage[0];
-            oldDamage[1] += damage[1];
-            oldDamage[2] += damage[2];
-        }
-    }
-
-    /** Takes damage data for the last combat interval and converts
-     *  it into contributions for each ship in the player's fleet. */
-    private void performCombatUpdate() {
-        for (String enemyId : enemyShips) {
-            // Ignore ships that aren't base ships (so fighters, modules, etc.)
-            if (!enemyId.equals(getBaseShipId(enemyId))) {
-                continue;
-            } 
-            // Give the player ship that dealt the most hull/armor damage the ATTACK contribution
-            Map<String, float[]> damageDealtByPlayer = damageReceivedByEnemy.get(enemyId);
-            String attackWinner = addContributionToMostDamage(
-                enemyId, damageDealtByPlayer, hullAndArmor, ContributionType.ATTACK);
-            // Give the player ship that took the most hull/armor/shield damage the DEFENSE contribution,
-            // but exclude the ship that already received the ATTACK contribution.
-            Map<String, float[]> damageReceivedByPlayer = damageDealtByEnemy.get(enemyId);
-            String defenseWinner = addContributionToMostDamage(
-                enemyId, damageReceivedByPlayer, hullArmorShield, ContributionType.DEFENSE);
-            // SUPPORT contribution only counts if the ship in question took hull or armor damage
-            if (attackWinner == null) {
-                continue;
-            }
-            // For every other player ship that took or received damage from this ship,
-            // add SUPPORT contribution
-            for (String shipId : playerShips) {
-                // Ignore the ATTACK and DEFENSE winners
-                if (shipId.equals(attackWinner) || shipId.equals(defenseWinner)) {
-                    continue;
-                }
-                float damageDealt, damageTaken = 0f;
-                float[] rawDamageDealt = damageDealtByPlayer.get(shipId);
-                damageDealt = rawDamageDealt == null ? 0f : hullArmorShield.combine(rawDamageDealt);
-                if (damageReceivedByPlayer != null) {
-                    float[] rawDamageTaken = damageReceivedByPlayer.get(shipId);
-                    damageTaken = rawDamageTaken == null ? 0f : hullArmorShield.combine(rawDamageTaken);
-                }
-                addContribution(enemyId, shipId, damageDealt + damageTaken, ContributionType.SUPPORT);
-            }
-        }
-        // Reset the raw damage tables for the next cycle
-        damageDealtByEnemy.clear();
-        damageReceivedByEnemy.clear();
-    }
-
-    /** Find the ship id with the highest damage in [damageMap]; then, use that damage
-     *  to add contribution of [type] to that ship id for [enemyShip]. */
-    private String addContributionToMostDamage(String enemyShip, Map<String, float[]> damageMap, DamageCombiner combiner, ContributionType type) {
-        if (damageMap == null) {
-            return null;
-        }
-        String winner = null;
-        float winnerDamage = 0f;
-        for (Map.Entry<String, float[]> entry : damageMap.entrySet()) {
-            String shipId = entry.getKey();
-            float damage = combiner.combine(entry.getValue());
-            if (damage > winnerDamage) {
-                winner = shipId;
-                winnerDamage = damage;
-            }
-        }
-        addContribution(enemyShip, winner, winnerDamage, type);
-        return winner;
-    }
-
-    /** Adds damageToContribution([amount]) to totalContribution[type][enemyShip][playerShip],
-     *  creating new tables if necessary. */
-    private void addContribution(String enemyShip, String playerShip, float rawDmg, ContributionType type) {
-        if (playerShip == null) {
+        // Ships that deal damage before they're picked up by updateShipList
+        // still need an index
+        register(dealerHandle, dealerOwner == 0);
+        register(receiverHandle, receiverOwner == 0);
+        if (recorder != null) {
+            recorder.recordDamage(
+                    time,
+                    dealerHandle.isPlayer, dealerHandle.index, dealerOwner,
+                    receiverHandle.isPlayer, receiverHandle.index, receiverOwner,
+                    damage.getDamageToHull(),
+                    damage.getTotalDamageToArmor(),
+                    damage.getDamageToShields());
+        }
+        // Ignore ships that were registered to the other side
+        if (dealerHandle.isPlayer == receiverHandle.isPlayer) {
             return;
         }
-        float contribAmt = damageToContribution(rawDmg, type);
-        // Don't waste space for 0 contribution entries
-        if (contribAmt <= 0f) {
-            return;
-        }
-        Map<String, Map<String, Float>> contribution = totalContribution.get(type);
-        Map<String, Float> contribForEnemy = contribution.get(enemyShip);
-        if (contribForEnemy == null) {
-            contribForEnemy = new HashMap<>();
-            contribution.put(enemyShip, contribForEnemy);
+        damageEventCount++;
+        // Add the damage info to either enemyDealtBy or enemyDealtTo
+        if (receiverHandle.isPlayer) {
+            calculator.addDealtByEnemy(
+                    dealerHandle.index,
+                    receiverHandle.index,
+                    damage.getDamageToHull(),
+                    damage.getTotalDamageToArmor(),
+                    damage.getDamageToShields());
         }
-        Float curAmt = contribForEnemy.get(playerShip);
-        contribForEnemy.put(playerShip, curAmt == null ? contribAmt : contribAmt + curAmt);
-    }
-
-    /** Turns raw damage into contribution amount. Generally substantially
-     *  less than the raw damage, in order to balance dealing a lot of damage
-     *  in a short time with dealing less damage over a longer period of time. */
-    private float damageToContribution(float damage, ContributionType contribType) {
-        if (damage <= 0f) {
-            return 0f;
-        }
-        switch (contribType) {
-            case ATTACK: return damage;
-            case DEFENSE: return (float) Math.sqrt(damage);
-            // Support uses log, so it highly favors
-            // doing or taking small amounts of damage over a long time
-            // over doing or taking a large amount of damage over a short time
-            case SUPPORT: return (float) Math.log(damage + 1f);
-            default: return 0f;
+        else {
+            calculator.addReceivedByEnemy(
+                    receiverHandle.index,
+                    dealerHandle.index,
+                    damage.getDamageToHull(),
+                    damage.getTotalDamageToArmor(),
+                    damage.getDamageToShields());
         }
     }
 
     /** Records damage taken and passes the data back to the main
-     *  combat plugin. */
+     *  combat plugin. A single instance is shared by all ships in a combat; recording
+     *  a hit doesn't allocate once the ships involved have been seen. */
     public static class ProgSModDamageListener implements DamageListener {
 
         private final ContributionTracker handler;
@@ -380,91 +689,28 @@ public class ContributionTracker extends BaseEveryFrameCombatPlugin {
     
         @Override
         public void reportDamageApplied(Object source, CombatEntityAPI target, ApplyDamageResultAPI damage) {
+            if (!handler.profile) {
+                handler.registerDamage(source, target, damage);
+                return;
+            }
+            long start = System.nanoTime();
             handler.registerDamage(source, target, damage);
+            handler.registerDamageNanos += System.nanoTime() - start;
         }
     }
 
-    /** Combines hull, armor, and shield damage into a single term. */
-    private interface DamageCombiner {
-        /** Assumes order is: hull, then armor, then shield damage. */
-        float combine(float[] damages);
-    }
+    /** Per-combat identity of a base ship. Fighters, drones and modules share the handle
+     *  of the ship they belong to. [index] is dense among the base ships on one side, so it can
+     *  be used to address the damage tables directly; it is -1 until the ship is registered. */
+    private static class ShipHandle {
+        private final ShipAPI ship;
+        private int index = -1;
+        private boolean isPlayer;
+        /** Whether the ship is in [activePlayerShips] or [activeEnemyShips]. */
+        private boolean isActive = false;
 
-    private static class HullAndArmorCombiner implements DamageCombiner {
-        @Override
-        public float combine(float[] damages) {
-            return damages[0] + damages[1];
+        private ShipHandle(ShipAPI ship) {
+            this.ship = ship;
         }
     }
-
-    private static class HullArmorShieldCombiner implements DamageCombiner {
-        @Override
-        public float combine(float[] damages) {
-            return damages[0] + damages[1] + damages[2];
-        }
-    }
-
-    // private void checkDamageTables() {
-    //     Logger logger = Global.getLogger(getClass());
-    //     for (Map.Entry<String, Map<String, float[]>> entry : damageReceivedByEnemy.entrySet()) {
-    //         String enemy = entry.getKey();
-    //         if (!baseShipTable.containsKey(enemy)) {
-    //             logger.info("Unknown enemy (damageReceivedByEnemy)");
-    //         }
-    //         else if (baseShipTable.get(enemy).getOwner() == 0) {
-    //             logger.info("Player where enemy should be (damageReceivedByEnemy)");
-    //         }
-    //         for (Map.Entry<String, float[]> entry2 : entry.getValue().entrySet()) {
-    //             String player = entry2.getKey();
-    //             if (!baseShipTable.containsKey(player)) {
-    //                 logger.info("Unknown player (damageReceivedByEnemy)");
-    //             }
-    //             else if (baseShipTable.get(player).getOwner() == 1) {
-    //                 logger.info("Enemy where player should be (damageReceivedByEnemy)");
-    //             }
-    //         }
-    //     }
-    //     for (Map.Entry<String, Map<String, float[]>> entry : damageDealtByEnemy.entrySet()) {
-    //         String enemy = entry.getKey();
-    //         if (!baseShipTable.containsKey(enemy)) {
-    //             logger.info("Unknown enemy (damageDealtByEnemy)");
-    //         }
-    //         else if (baseShipTable.get(enemy).getOwner() == 0) {
-    //             logger.info("Player where enemy should be (damageDealtByEnemy)");
-    //         }
-    //         for (Map.Entry<String, float[]> entry2 : entry.getValue().entrySet()) {
-    //             String player = entry2.getKey();
-    //             if (!baseShipTable.containsKey(player)) {
-    //                 logger.info("Unknown player (damageDealtByEnemy)");
-    //             }
-    //             else if (baseShipTable.get(player).getOwner() == 1) {
-    //                 logger.info("Enemy where player should be (damageDealtByEnemy)");
-    //             }
-    //         }
-    //     }
-    // }
-
-    // private void checkContribTable() {
-    //     Logger logger = Global.getLogger(getClass());
-    //     for (Map.Entry<ContributionType, Map<String, Map<String, Float>>> entry : totalContribution.entrySet()) {
-    //         for (Map.Entry<String, Map<String, Float>> entry2 : entry.getValue().entrySet()) {
-    //             String enemy = entry2.getKey();
-    //             if (!baseShipTable.containsKey(enemy)) {
-    //                 logger.info("Unknown enemy (contrib)");
-    //             }
-    //             else if (baseShipTable.get(enemy).getOwner() == 0) {
-    //                 logger.info("Player where enemy should be (contrib)");
-    //             }
-    //             for (Map.Entry<String, Float> entry3 : entry2.getValue().entrySet()) {
-    //                 String player = entry3.getKey();
-    //                 if (!baseShipTable.containsKey(player)) {
-    //                     logger.info("Unknown player (contrib)");
-    //                 }
-    //                 else if (baseShipTable.get(player).getOwner() == 1) {
-    //                     logger.info("Enemy where player should be (contrib)");
-    //                 }
-    //             }
-    //         }
-    //     }
-    // }
 }
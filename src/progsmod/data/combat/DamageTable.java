@@ -0,0 +1,158 @@
+package progsmod.data.combat;
+
+/** Flat tables of the damage dealt between enemy ships and player ships over one combat interval.
+ *  For each table, entry [enemy][player] is stored as three consecutive floats in the order
+ *    [hull, armor, shields]
+ *  starting at offset (enemy * playerCapacity + player) * 3.
+ *  Also keeps a sparse index of which enemies were involved in any damage, and which player ships
+ *  were involved with each of those enemies, so that only actual participants need to be visited. */
+class DamageTable {
+
+    /** Damage dealt to each enemy ship by each player ship. */
+    private float[] received = new float[0];
+    /** Damage dealt by each enemy ship to each player ship. */
+    private float[] dealt = new float[0];
+    private int enemyCapacity = 0;
+    private int playerCapacity = 0;
+
+    /** Whether [enemy][player] has any entry in either table. */
+    private boolean[] engaged = new boolean[0];
+    /** participants[enemy * playerCapacity + i] is the i-th player ship engaged with [enemy]. */
+    private int[] participants = new int[0];
+    private int[] participantCount = new int[0];
+    /** Enemies with at least one participant, in the order they were first engaged. */
+    private int[] engagedEnemies = new int[0];
+    private int engagedEnemyCount = 0;
+
+    /** Number of times the backing arrays have been (re)allocated. */
+    private int allocations = 0;
+
+    /** Makes sure that the table can hold at least [nEnemies] x [nPlayers] entries,
+     *  keeping any existing data. */
+    void ensureCapacity(int nEnemies, int nPlayers) {
+        if (nEnemies <= enemyCapacity && nPlayers <= playerCapacity) {
+            return;
+        }
+        // Only grow the dimension that overflowed, so that e.g. many late enemy spawns
+        // don't also double the player dimension
+        int newEnemyCapacity = nEnemies <= enemyCapacity ? enemyCapacity : Math.max(nEnemies, 2 * enemyCapacity);
+        int newPlayerCapacity = nPlayers <= playerCapacity ? playerCapacity : Math.max(nPlayers, 2 * playerCapacity);
+        int cells = newEnemyCapacity * newPlayerCapacity;
+        float[] newReceived = new float[cells * 3];
+        float[] newDealt = new float[cells * 3];
+        boolean[] newEngaged = new boolean[cells];
+        int[] newParticipants = new int[cells];
+        for (int i = 0; i < enemyCapacity; i++) {
+            System.arraycopy(received, i * playerCapacity * 3, newReceived, i * newPlayerCapacity * 3, playerCapacity * 3);
+            System.arraycopy(dealt, i * playerCapacity * 3, newDealt, i * newPlayerCapacity * 3, playerCapacity * 3);
+            System.arraycopy(engaged, i * playerCapacity, newEngaged, i * newPlayerCapacity, playerCapacity);
+            System.arraycopy(participants, i * playerCapacity, newParticipants, i * newPlayerCapacity, participantCount[i]);
+        }
+        int[] newParticipantCount = new int[newEnemyCapacity];
+        System.arraycopy(participantCount, 0, newParticipantCount, 0, enemyCapacity);
+        int[] newEngagedEnemies = new int[newEnemyCapacity];
+        System.arraycopy(engagedEnemies, 0, newEngagedEnemies, 0, engagedEnemyCount);
+        received = newReceived;
+        dealt = newDealt;
+        engaged = newEngaged;
+        participants = newParticipants;
+        participantCount = newParticipantCount;
+        engagedEnemies = newEngagedEnemies;
+        allocations++;
+        enemyCapacity = newEnemyCapacity;
+        playerCapacity = newPlayerCapacity;
+    }
+
+    /** Adds damage dealt by [player] to [enemy] to the table. */
+    void addReceivedByEnemy(int enemy, int player, float hull, float armor, float shields) {
+        add(received, enemy, player, hull, armor, shields);
+    }
+
+    /** Adds damage dealt by [enemy] to [player] to the table. */
+    void addDealtByEnemy(int enemy, int player, float hull, float armor, float shields) {
+        add(dealt, enemy, player, hull, armor, shields);
+    }
+
+    private void add(float[] table, int enemy, int player, float hull, float armor, float shields) {
+        int cell = enemy * playerCapacity + player;
+        if (!engaged[cell]) {
+            engaged[cell] = true;
+            if (participantCount[enemy] == 0) {
+                engagedEnemies[engagedEnemyCount++] = enemy;
+            }
+            participants[enemy * playerCapacity + participantCount[enemy]++] = player;
+        }
+        int offset = cell * 3;
+        table[offset] += hull;
+        table[offset + 1] += armor;
+        table[offset + 2] += shields;
+    }
+
+    /** Combines the damage dealt by [player] to [enemy] into a single term. */
+    float combineReceivedByEnemy(int enemy, int player, DamageCombiner combiner) {
+        return combiner.combine(received, (enemy * playerCapacity + player) * 3);
+    }
+
+    /** Combines the damage dealt by [enemy] to [player] into a single term. */
+    float combineDealtByEnemy(int enemy, int player, DamageCombiner combiner) {
+        return combiner.combine(dealt, (enemy * playerCapacity + player) * 3);
+    }
+
+    int getEngagedEnemyCount() {
+        return engagedEnemyCount;
+    }
+
+    /** Returns the [i]-th enemy that took or dealt damage this interval. */
+    int getEngagedEnemy(int i) {
+        return engagedEnemies[i];
+    }
+
+    int getParticipantCount(int enemy) {
+        return participantCount[enemy];
+    }
+
+    /** Returns the [i]-th player ship that took or dealt damage from or to [enemy] this interval. */
+    int getParticipant(int enemy, int i) {
+        return participants[enemy * playerCapacity + i];
+    }
+
+    /** Zero-fills the entries that were written to since the last clear. */
+    void clear() {
+        for (int i = 0; i < engagedEnemyCount; i++) {
+            int enemy = engagedEnemies[i];
+            for (int j = 0; j < participantCount[enemy]; j++) {
+                int cell = enemy * playerCapacity + participants[enemy * playerCapacity + j];
+                engaged[cell] = false;
+                int offset = cell * 3;
+                received[offset] = received[offset + 1] = received[offset + 2] = 0f;
+                dealt[offset] = dealt[offset + 1] = dealt[offset + 2] = 0f;
+            }
+            participantCount[enemy] = 0;
+        }
+        engagedEnemyCount = 0;
+    }
+
+    int getAllocations() {
+        return allocations;
+    }
+
+    /** Combines hull, armor, and shield damage into a single term. */
+    interface DamageCombiner {
+        /** Assumes order starting at [offset] is: hull, then armor, then shield damage. */
+        float combine(float[] damages, int offset);
+    }
+
+    static class HullAndArmorCombiner implements DamageCombiner {
+        @Override
+        public float combine(float[] damages, int offset) {
+            return damages[offset] + damages[offset + 1];
+        }
+    }
+
+    static class HullArmorShieldCombiner implements DamageCombiner {
+        @Override
+        public float combine(float[] damages, int offset) {
+            return damages[offset] + damages[offset + 1] + damages[offset + 2];
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package progsmod.data.combat;
+
+import progsmod.data.combat.ContributionTracker.ContributionType;
+
+/** Immutable copy of the contribution gained over a combat, handed from [ContributionTracker]
+ *  to the campaign side once the combat is over.
+ *  Entry [enemy][player] of each contribution type is at offset enemy * getPlayerCount() + player.
+ *  Ships are identified by their fleet member ids, which may be null for ships without a fleet member. */
+public final class EngagementContributionSnapshot {
+
+    public static final EngagementContributionSnapshot EMPTY =
+            new EngagementContributionSnapshot(new String[0], new String[0], new float[ContributionType.values().length][0]);
+
+    private final String[] enemyFleetMemberIds;
+    private final String[] playerFleetMemberIds;
+    private final float[][] contribution;
+
+    EngagementContributionSnapshot(String[] enemyFleetMemberIds, String[] playerFleetMemberIds, float[][] contribution) {
+        this.enemyFleetMemberIds = enemyFleetMemberIds;
+        this.playerFleetMemberIds = playerFleetMemberIds;
+        this.contribution = contribution;
+    }
+
+    /** Number of enemy ships in the snapshot. Enemy indices are in [0, getEnemyCount()). */
+    public int getEnemyCount() {
+        return enemyFleetMemberIds.length;
+    }
+
+    /** Number of player ships in the snapshot. Player indices are in [0, getPlayerCount()). */
+    public int getPlayerCount() {
+        return playerFleetMemberIds.length;
+    }
+
+    public String getEnemyFleetMemberId(int enemy) {
+        return enemyFleetMemberIds[enemy];
+    }
+
+    public String getPlayerFleetMemberId(int player) {
+        return playerFleetMemberIds[player];
+    }
+
+    /** Total contribution of [type] for [enemy] gained by [player]. */
+    public float get(ContributionType type, int enemy, int player) {
+        return contribution[type.ordinal()][enemy * playerFleetMemberIds.length + player];
+    }
+
+    /** Sum of the contribution of [type] for [enemy] over all player ships. */
+    public float getTotal(ContributionType type, int enemy) {
+        float[] table = contribution[type.ordinal()];
+        float total = 0f;
+        for (int i = enemy * playerFleetMemberIds.length, end = i + playerFleetMemberIds.length; i < end; i++) {
+            total += table[i];
+        }
+        return total;
+    }
+}
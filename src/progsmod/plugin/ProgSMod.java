@@ -6,7 +6,9 @@ import com.fs.starfarer.api.loading.HullModSpecAPI;
 import progsmod.data.campaign.EngagementListener;
 import progsmod.data.campaign.LunaSModButton;
 import progsmod.data.campaign.RefitTabListenerAndScript;
+import progsmod.data.campaign.ShipDataSweeper;
 import util.SModUtils;
+import util.XPJournal;
 
 @SuppressWarnings("unused")
 public class ProgSMod extends com.fs.starfarer.api.BaseModPlugin {
@@ -39,6 +41,22 @@ public class ProgSMod extends com.fs.starfarer.api.BaseModPlugin {
         }
     }
 
+    @Override
+    public void beforeGameSave() {
+        // Queued tracker hull mods don't survive a reload
+        SModUtils.attachPendingTrackerHullMods();
+        SModUtils.storeShipData();
+        SModUtils.assignSaveId();
+    }
+
+    @Override
+    public void afterGameSave() {
+        // Everything in the journal is in the save now
+        if (!SModUtils.Constants.DISABLE_MOD) {
+            XPJournal.compact(SModUtils.getSaveId());
+        }
+    }
+
     @Override
     public void onGameLoad(boolean newGame) {
         if (!SModUtils.Constants.DISABLE_MOD) {
@@ -53,6 +71,7 @@ public class ProgSMod extends com.fs.starfarer.api.BaseModPlugin {
 
             Global.getSector().addTransientListener(new EngagementListener(false));
             Global.getSector().addTransientScript(new RefitTabListenerAndScript());
+            Global.getSector().addTransientScript(new ShipDataSweeper());
         }
         else {
             Global.getSettings().getHullModSpec("progsmod_xptracker").setHiddenEverywhere(true);
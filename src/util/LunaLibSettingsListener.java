@@ -8,6 +8,7 @@ import org.json.JSONObject;
 
 import static util.SModUtils.Constants;
 import static util.SModUtils.Constants.loadCoeffsFromJSON;
+import static util.SModUtils.Constants.loadStringSetFromJSON;
 
 public class LunaLibSettingsListener implements LunaSettingsListener {
 
@@ -64,6 +65,10 @@ public class LunaLibSettingsListener implements LunaSettingsListener {
             Constants.XP_FRACTION_DEFENSE = LunaSettings.getFloat(id, "psm_xpFractionDefense");
             Constants.XP_FRACTION_SUPPORT = LunaSettings.getFloat(id, "psm_xpFractionSupport");
             Constants.COMBAT_UPDATE_INTERVAL = LunaSettings.getFloat(id, "psm_combatUpdateInterval");
+            Constants.ADAPTIVE_COMBAT_UPDATE_INTERVAL = LunaSettings.getBoolean(id, "psm_adaptiveCombatUpdateInterval");
+            Constants.COMBAT_UPDATE_INTERVAL_MIN = LunaSettings.getFloat(id, "psm_combatUpdateIntervalMin");
+            Constants.COMBAT_UPDATE_INTERVAL_MAX = LunaSettings.getFloat(id, "psm_combatUpdateIntervalMax");
+            Constants.COMBAT_UPDATE_ENEMIES_PER_FRAME = LunaSettings.getInt(id, "psm_combatUpdateEnemiesPerFrame");
 
             // Still need to load some stuff from the json
             JSONObject json = Global.getSettings().loadJSON(jsonFilePath);
@@ -76,6 +81,19 @@ public class LunaLibSettingsListener implements LunaSettingsListener {
             Constants.BASE_DP_DESTROYER = (float) json.getDouble("baseDPDestroyer");
             Constants.BASE_DP_CRUISER = (float) json.getDouble("baseDPCruiser");
             Constants.BASE_DP_CAPITAL = (float) json.getDouble("baseDPCapital");
+            JSONObject combat = json.getJSONObject("combat");
+            Constants.IGNORED_DAMAGE_SOURCE_HULL_IDS = loadStringSetFromJSON(combat, "ignoredDamageSourceHullIds");
+            Constants.IGNORED_DAMAGE_SOURCE_HULL_TAGS = loadStringSetFromJSON(combat, "ignoredDamageSourceHullTags");
+            Constants.RECORD_COMBAT_DAMAGE = combat.getBoolean("recordCombatDamage");
+            Constants.DEFER_TRACKER_HULL_MOD = combat.getBoolean("deferTrackerHullMod");
+            Constants.COMPACT_SHIP_DATA_STORAGE = json.getBoolean("compactShipDataStorage");
+            Constants.XP_JOURNAL = json.getBoolean("xpJournal");
+            Constants.SHIP_DATA_SWEEP_INTERVAL_DAYS = (float) json.getDouble("shipDataSweepIntervalDays");
+            Constants.SHIP_DATA_SWEEP_BATCH_SIZE = json.getInt("shipDataSweepBatchSize");
+            Constants.SHIP_DATA_SWEEP_ARCHIVE_TO_RESERVE = json.getBoolean("shipDataSweepArchiveToReserve");
+            Constants.PROFILE_COMBAT_TRACKER = combat.getBoolean("profileCombatTracker");
+            Constants.AUGMENT_COST_SCHEDULE_SIZE = json.getInt("augmentCostScheduleSize");
+            Constants.onConstantsLoaded();
         }
         catch (Exception e) {
             throw new RuntimeException(e);
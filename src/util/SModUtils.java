@@ -16,6 +16,7 @@ import progsmod.data.campaign.rulecmd.util.HullModButtonData;
 import progsmod.data.combat.ContributionTracker.*;
 
 import java.io.*;
+import java.lang.ref.WeakReference;
 import java.util.*;
 
 public class SModUtils {
@@ -34,10 +35,37 @@ public class SModUtils {
     /** Lookup key into the sector-persistent data that stores ship data */
     public static final String SHIP_DATA_KEY = "progsmod_ShipData";
     public static ShipDataTable SHIP_DATA_TABLE = new ShipDataTable();
+    /** Lookup key into the sector-persistent data that stores ship data packed into a string;
+     *  see [ShipDataCodec]. Used instead of SHIP_DATA_KEY if COMPACT_SHIP_DATA_STORAGE is set. */
+    public static final String PACKED_SHIP_DATA_KEY = "progsmod_ShipDataPacked";
+    /** Packed ship data that couldn't be decoded, e.g. from a newer version of the mod,
+     *  kept as it was in case it can be recovered later */
+    public static final String UNREADABLE_SHIP_DATA_KEY = "progsmod_ShipDataPackedUnreadable";
+    /** Lookup keys into the sector-persistent data that identify the campaign and the save it was
+     *  loaded from, so that the XP journal can tell whether it continues from a given save. The save id
+     *  is new for every save, so two saves made from the same loaded save can't be mixed up. */
+    public static final String CAMPAIGN_ID_KEY = "progsmod_CampaignId";
+    public static final String SAVE_ID_KEY = "progsmod_SaveId";
+    /** Where a save counter used to be kept instead of the save id. Removed on load. */
+    public static final String SAVE_GENERATION_KEY = "progsmod_SaveGeneration";
+    /** The sector that SHIP_DATA_TABLE was loaded from. Weak so that it doesn't keep old sectors alive. */
+    private static WeakReference<SectorAPI> shipDataSector = new WeakReference<>(null);
 
     /** Lookup key into the sector-persistent data that stores reserve XP from losses */
+    public static final String RESERVE_XP_MAP_KEY = "progsmod_ReserveXPMap";
+    public static StringFloatMap RESERVE_XP_TABLE = new StringFloatMap();
+    /** Where reserve XP used to be stored, as a [ReserveXPTable]. Moved to RESERVE_XP_MAP_KEY on load. */
     public static final String RESERVE_XP_KEY = "progsmod_ReserveXP";
-    public static ReserveXPTable RESERVE_XP_TABLE = new ReserveXPTable();
+    /** Set in the sector-persistent data once reserve XP for specialized hull types has been
+     *  moved to the base hull type, so that it only has to be done once per save */
+    public static final String RESERVE_XP_NORMALIZED_KEY = "progsmod_ReserveXPNormalized";
+
+    /** Maps fleet member ids to the variant that was given a tracker hull mod this session. The ship's
+     *  variant can be replaced, e.g. by autofit or a restore, so this only lets a ship skip the check
+     *  while it still has that same variant. */
+    private static final Map<String, ShipVariantAPI> TRACKED_VARIANTS = new HashMap<>();
+    /** Fleet members waiting for a tracker hull mod, if DEFER_TRACKER_HULL_MOD is set */
+    private static final Map<String, FleetMemberAPI> PENDING_TRACKERS = new LinkedHashMap<>();
 
     public static class Constants {
         public static int MAX_RECENTLY_BUILT_IN_SIZE;
@@ -58,6 +86,8 @@ public class SModUtils {
         /** Same as above two but for XP cost */
         public static GrowthType EXTRA_SMOD_XP_COST_GROWTHTYPE;
         public static float EXTRA_SMOD_XP_COST_GROWTHFACTOR;
+        /** Augment costs are precomputed for ships augmented fewer than this many times */
+        public static int AUGMENT_COST_SCHEDULE_SIZE;
         /** The base amount of XP it costs per OP to build in a hull mod is defined as 
          *  p(x) where x is the OP cost of the mod and p is a polynomial with coefficients
          * in [XP_COST_COEFFS] listed in ascending order. */
@@ -108,6 +138,36 @@ public class SModUtils {
         public static boolean ALLOW_INCREASE_SMOD_LIMIT;
         /** How often the combat tracker should update ship contribution. */
         public static float COMBAT_UPDATE_INTERVAL;
+        /** Whether the combat update interval should scale with the size of the battle */
+        public static boolean ADAPTIVE_COMBAT_UPDATE_INTERVAL;
+        /** Bounds on the combat update interval when it's adaptive */
+        public static float COMBAT_UPDATE_INTERVAL_MIN;
+        public static float COMBAT_UPDATE_INTERVAL_MAX;
+        /** Maximum number of enemy ships whose contribution is processed per frame
+         *  at the end of a combat interval. 0 processes them all at once. */
+        public static int COMBAT_UPDATE_ENEMIES_PER_FRAME;
+        /** Damage dealt by or to ships with these hull ids is ignored by the combat tracker. */
+        public static Set<String> IGNORED_DAMAGE_SOURCE_HULL_IDS = new HashSet<>();
+        /** Damage dealt by or to ships whose hulls have any of these tags is ignored by the combat tracker. */
+        public static Set<String> IGNORED_DAMAGE_SOURCE_HULL_TAGS = new HashSet<>();
+        /** Wait until the next dialog or refit screen to add tracker hull mods to ships that gained XP in battle */
+        public static boolean DEFER_TRACKER_HULL_MOD;
+        /** Record combat damage events to common storage for offline replay */
+        public static boolean RECORD_COMBAT_DAMAGE;
+        /** Log the time the combat tracker spends on each combat */
+        public static boolean PROFILE_COMBAT_TRACKER;
+
+        /** Store ship data in the save as a single packed string rather than as objects */
+        public static boolean COMPACT_SHIP_DATA_STORAGE;
+        /** How often, in days, to look for ship data of ships the player no longer has. 0 to never look. */
+        public static float SHIP_DATA_SWEEP_INTERVAL_DAYS;
+        /** Maximum number of ship data entries checked per frame during a sweep */
+        public static int SHIP_DATA_SWEEP_BATCH_SIZE;
+        /** Whether the XP of orphaned ship data goes to its hull's reserve XP pool rather than being discarded */
+        public static boolean SHIP_DATA_SWEEP_ARCHIVE_TO_RESERVE;
+
+        /** Keep a journal of engagement XP gains in common storage, to be replayed if the game crashes before saving */
+        public static boolean XP_JOURNAL;
 
         /** Set to true to disable this mod's features */
         public static boolean DISABLE_MOD;
@@ -134,6 +194,7 @@ public class SModUtils {
             EXTRA_SMOD_XP_COST_GROWTHTYPE = 
                 json.getInt("extraSModXPCostGrowthType") == 0 ? GrowthType.LINEAR : GrowthType.EXPONENTIAL;
             EXTRA_SMOD_XP_COST_GROWTHFACTOR = (float) json.getDouble("extraSModXPCostGrowthFactor");
+            AUGMENT_COST_SCHEDULE_SIZE = json.getInt("augmentCostScheduleSize");
             JSONObject costCoeff = json.getJSONObject("xpCostCoeff");
             XP_COST_COEFF_FRIGATE = loadCoeffsFromJSON(costCoeff, "frigate", 1f);
             XP_COST_COEFF_DESTROYER = loadCoeffsFromJSON(costCoeff, "destroyer", 1f);
@@ -149,6 +210,11 @@ public class SModUtils {
             IGNORE_NO_BUILD_IN = json.getBoolean("ignoreNoBuildIn");
             ALLOW_INCREASE_SMOD_LIMIT = json.getBoolean("allowIncreaseSModLimit");
             DISABLE_MOD = json.getBoolean("disableMod");
+            COMPACT_SHIP_DATA_STORAGE = json.getBoolean("compactShipDataStorage");
+            XP_JOURNAL = json.getBoolean("xpJournal");
+            SHIP_DATA_SWEEP_INTERVAL_DAYS = (float) json.getDouble("shipDataSweepIntervalDays");
+            SHIP_DATA_SWEEP_BATCH_SIZE = json.getInt("shipDataSweepBatchSize");
+            SHIP_DATA_SWEEP_ARCHIVE_TO_RESERVE = json.getBoolean("shipDataSweepArchiveToReserve");
 
             JSONObject combat = json.getJSONObject("combat");
             GIVE_XP_TO_DISABLED_SHIPS = combat.getBoolean("giveXPToDisabledShips");
@@ -159,10 +225,29 @@ public class SModUtils {
             POST_BATTLE_AUTO_PURSUIT_MULTIPLIER = (float) combat.getDouble("postBattleAutoPursuitMultiplier");
             TARGET_DMOD_LOWER_BOUND = (float) combat.getDouble("targetDModLowerBound");
             COMBAT_UPDATE_INTERVAL = (float) combat.getDouble("combatUpdateInterval");
+            ADAPTIVE_COMBAT_UPDATE_INTERVAL = combat.getBoolean("adaptiveCombatUpdateInterval");
+            COMBAT_UPDATE_INTERVAL_MIN = (float) combat.getDouble("combatUpdateIntervalMin");
+            COMBAT_UPDATE_INTERVAL_MAX = (float) combat.getDouble("combatUpdateIntervalMax");
+            COMBAT_UPDATE_ENEMIES_PER_FRAME = combat.getInt("combatUpdateEnemiesPerFrame");
+            IGNORED_DAMAGE_SOURCE_HULL_IDS = loadStringSetFromJSON(combat, "ignoredDamageSourceHullIds");
+            IGNORED_DAMAGE_SOURCE_HULL_TAGS = loadStringSetFromJSON(combat, "ignoredDamageSourceHullTags");
+            RECORD_COMBAT_DAMAGE = combat.getBoolean("recordCombatDamage");
+            DEFER_TRACKER_HULL_MOD = combat.getBoolean("deferTrackerHullMod");
+            PROFILE_COMBAT_TRACKER = combat.getBoolean("profileCombatTracker");
             XP_FRACTION_ATTACK = (float) combat.getDouble("xpFractionAttack");
             XP_FRACTION_DEFENSE = (float) combat.getDouble("xpFractionDefense");
             XP_FRACTION_SUPPORT = (float) combat.getDouble("xpFractionSupport");
             CONDENSE_XP_GAIN_MESSAGES = combat.getBoolean("condenseXPGainMessages");
+            onConstantsLoaded();
+        }
+
+        /** Drops everything that was computed from the previous values of the constants. */
+        static void onConstantsLoaded() {
+            for (StringFloatMap cache : BUILD_IN_COST_CACHE) {
+                cache.clear();
+            }
+            augmentSPCostSchedule = null;
+            augmentXPGrowthSchedule = null;
         }
 
         static float[] loadCoeffsFromJSON(JSONObject json, String name, float multiplier) throws JSONException {
@@ -174,6 +259,15 @@ public class SModUtils {
             }
             return coeffs;
         }
+
+        static Set<String> loadStringSetFromJSON(JSONObject json, String name) throws JSONException {
+            JSONArray jsonArray = json.getJSONArray(name);
+            Set<String> strings = new HashSet<>();
+            for (int i = 0; i < jsonArray.length(); i++) {
+                strings.add(jsonArray.getString(i));
+            }
+            return strings;
+        }
     }
 
     /** Contains XP and # of max perma mods over the normal limit. */
@@ -182,6 +276,8 @@ public class SModUtils {
         public float xpSpentOnIncreasingLimit = 0f;
         public int permaModsOverLimit;
         public boolean initialSModsAccountedFor = false;
+        /** Base hull id of the ship, if known. Lets orphaned entries be archived to reserve XP. */
+        public String hullId;
 
         public ShipData(float xp, int pmol) {
             this.xp = xp;
@@ -192,7 +288,7 @@ public class SModUtils {
     /** Wrapper class that maps ships to their ship data. */
     public static class ShipDataTable extends HashMap<String, ShipData> {}
 
-    /** Wrapper class that maps hull id to reserve XP */
+    /** Wrapper class that maps hull id to reserve XP. Only kept so that older saves can be loaded. */
     public static class ReserveXPTable extends HashMap<String, Float> {}
         
     public static void loadConstants(String filePath) {
@@ -210,55 +306,109 @@ public class SModUtils {
 
     /** Retrieve the persistent data for this mod, if it exists. Else create it. */
     public static void loadData() {
-        if (!Global.getSector().getPersistentData().containsKey(SHIP_DATA_KEY)) {
-            SHIP_DATA_TABLE = new ShipDataTable();
-            Global.getSector().getPersistentData().put(SHIP_DATA_KEY, SHIP_DATA_TABLE); 
+        TRACKED_VARIANTS.clear();
+        PENDING_TRACKERS.clear();
+        Map<String, Object> persistentData = Global.getSector().getPersistentData();
+        Object packedShipData = persistentData.get(PACKED_SHIP_DATA_KEY);
+        SHIP_DATA_TABLE = null;
+        if (packedShipData instanceof String) {
+            try {
+                SHIP_DATA_TABLE = ShipDataCodec.decode((String) packedShipData);
+            }
+            catch (RuntimeException e) {
+                // Don't let bad ship data keep the save from loading; keep the string around as it was
+                Global.getLogger(SModUtils.class).error("Couldn't read packed ship data; keeping it under "
+                        + UNREADABLE_SHIP_DATA_KEY, e);
+                persistentData.put(UNREADABLE_SHIP_DATA_KEY, packedShipData);
+                persistentData.remove(PACKED_SHIP_DATA_KEY);
+            }
         }
-        else {
-            SHIP_DATA_TABLE = (ShipDataTable) Global.getSector().getPersistentData().get(SHIP_DATA_KEY);
+        if (SHIP_DATA_TABLE == null) {
+            // Saves from before the packed format, with it turned off, or whose packed data couldn't be read
+            Object shipData = persistentData.get(SHIP_DATA_KEY);
+            SHIP_DATA_TABLE = shipData instanceof ShipDataTable ? (ShipDataTable) shipData : new ShipDataTable();
+        }
+        shipDataSector = new WeakReference<>(Global.getSector());
+        if (!persistentData.containsKey(CAMPAIGN_ID_KEY)) {
+            persistentData.put(CAMPAIGN_ID_KEY, Misc.genUID());
         }
+        persistentData.remove(SAVE_GENERATION_KEY);
+        XPJournal.open((String) persistentData.get(CAMPAIGN_ID_KEY), getSaveId());
+        storeShipData();
 
-        if (!Global.getSector().getPersistentData().containsKey(RESERVE_XP_KEY)) {
-            RESERVE_XP_TABLE = new ReserveXPTable();
-            Global.getSector().getPersistentData().put(RESERVE_XP_KEY, RESERVE_XP_TABLE);
+        if (persistentData.get(RESERVE_XP_MAP_KEY) instanceof StringFloatMap) {
+            RESERVE_XP_TABLE = (StringFloatMap) persistentData.get(RESERVE_XP_MAP_KEY);
         }
         else {
-            RESERVE_XP_TABLE = (ReserveXPTable) Global.getSector().getPersistentData().get(RESERVE_XP_KEY);
+            RESERVE_XP_TABLE = new StringFloatMap();
+            persistentData.put(RESERVE_XP_MAP_KEY, RESERVE_XP_TABLE);
+        }
+        // Move reserve XP over from older saves
+        if (persistentData.get(RESERVE_XP_KEY) instanceof ReserveXPTable) {
+            for (Map.Entry<String, Float> entry : ((ReserveXPTable) persistentData.get(RESERVE_XP_KEY)).entrySet()) {
+                RESERVE_XP_TABLE.add(entry.getKey(), entry.getValue());
+            }
+            persistentData.remove(RESERVE_XP_KEY);
         }
 
         // Convert reserve XP for specialized hull types to the base hull type
-        // (for backwards compatibility)
-        List<String> toRemove = new ArrayList<>();
-        List<Pair<String, Float>> toAdd = new ArrayList<>();
-        for (Map.Entry<String, Float> entry : RESERVE_XP_TABLE.entrySet()) {
-            String hullId = entry.getKey();
-            ShipHullSpecAPI spec = Global.getSettings().getHullSpec(hullId);
-            float amount = entry.getValue();
-            if (spec != null) {
-                String baseHullId = spec.getBaseHullId();
-                if (!hullId.equals(baseHullId)) {
-                    toAdd.add(new Pair<>(baseHullId, amount));
-                    toRemove.add(hullId);
+        // (for backwards compatibility). Reserve XP is always added under
+        // the base hull type now, so this only needs to happen once.
+        if (!persistentData.containsKey(RESERVE_XP_NORMALIZED_KEY)) {
+            for (String hullId : RESERVE_XP_TABLE.keys()) {
+                ShipHullSpecAPI spec = Global.getSettings().getHullSpec(hullId);
+                if (spec == null || hullId.equals(spec.getBaseHullId())) {
+                    continue;
                 }
+                float amount = RESERVE_XP_TABLE.get(hullId, 0f);
+                RESERVE_XP_TABLE.remove(hullId);
+                RESERVE_XP_TABLE.add(spec.getBaseHullId(), amount);
             }
+            persistentData.put(RESERVE_XP_NORMALIZED_KEY, true);
         }
-        for (String id : toRemove) {
-            RESERVE_XP_TABLE.remove(id);
+    }
+
+    /** Puts SHIP_DATA_TABLE into the sector-persistent data in the storage format that's currently
+     *  selected, and removes it in the other format. Called before every save. */
+    public static void storeShipData() {
+        // Don't overwrite a sector's data with a table that was loaded for another one
+        if (shipDataSector.get() == null || shipDataSector.get() != Global.getSector()) {
+            return;
         }
-        for (Pair<String, Float> entry : toAdd) {
-            addReserveXP(entry.one, entry.two);
+        Map<String, Object> persistentData = Global.getSector().getPersistentData();
+        if (Constants.COMPACT_SHIP_DATA_STORAGE) {
+            persistentData.put(PACKED_SHIP_DATA_KEY, ShipDataCodec.encode(SHIP_DATA_TABLE));
+            persistentData.remove(SHIP_DATA_KEY);
+        }
+        else {
+            persistentData.put(SHIP_DATA_KEY, SHIP_DATA_TABLE);
+            persistentData.remove(PACKED_SHIP_DATA_KEY);
         }
     }
 
+    /** Identifies the save that the current campaign was loaded from or last saved as,
+     *  or null if it hasn't been saved with this mod yet */
+    public static String getSaveId() {
+        Object saveId = Global.getSector().getPersistentData().get(SAVE_ID_KEY);
+        return saveId instanceof String ? (String) saveId : null;
+    }
+
+    /** Gives the save that's about to be made a new id. Called before every save; once the save is done,
+     *  the XP journal is compacted with the new id. */
+    public static void assignSaveId() {
+        if (shipDataSector.get() == null || shipDataSector.get() != Global.getSector()) {
+            return;
+        }
+        Global.getSector().getPersistentData().put(SAVE_ID_KEY, Misc.genUID());
+    }
+
     /** Add [amount] of reserve XP to [hullId] (shared by all ships with hull [hullId]) */
     public static void addReserveXP(String hullId, float amount) {
-        Float cur = RESERVE_XP_TABLE.get(hullId);
-        RESERVE_XP_TABLE.put(hullId, cur == null ? amount : cur + amount);
+        RESERVE_XP_TABLE.add(hullId, amount);
     }
 
     public static float getReserveXP(String hullId) {
-        Float reserveXP = RESERVE_XP_TABLE.get(hullId);
-        return reserveXP == null ? 0f : reserveXP;
+        return RESERVE_XP_TABLE.get(hullId, 0f);
     }
 
     public static float getReserveXP(FleetMemberAPI fm) {
@@ -268,11 +418,9 @@ public class SModUtils {
     /** Decreases RESERVE_XP_TABLE[hullId] by [amount]. Increases SHIP_DATA_TABLE[fm.getId()].xp by [amount].
      *  Returns whether the operation was successful. */
     public static boolean useReserveXP(String hullId, FleetMemberAPI fm, float amount) {
-        Float available = RESERVE_XP_TABLE.get(hullId);
-        if (available == null || available < amount) {
+        if (!RESERVE_XP_TABLE.take(hullId, amount)) {
             return false;
         }
-        RESERVE_XP_TABLE.put(hullId, available - amount);
         giveXP(fm, amount);
         return true;
     }
@@ -300,12 +448,25 @@ public class SModUtils {
     public static boolean giveXP(FleetMemberAPI fm, float xp) {
         String fmId = fm.getId();
         boolean createdEntry = giveXP(fmId, xp);
+        recordHullId(fm);
         addTrackerHullMod(fm);
         return createdEntry;
     }
 
+    /** Remembers [fm]'s base hull id in its ship data entry, if it has one. */
+    public static void recordHullId(FleetMemberAPI fm) {
+        ShipData data = SHIP_DATA_TABLE.get(fm.getId());
+        if (data != null && data.hullId == null) {
+            data.hullId = fm.getHullSpec().getBaseHullId();
+        }
+    }
+
     /** Adds an XP tracking hull mod to the ship in question */
     public static void addTrackerHullMod(FleetMemberAPI fm) {
+        PENDING_TRACKERS.remove(fm.getId());
+        if (hasKnownTracker(fm)) {
+            return;
+        }
         if (!fm.getVariant().hasHullMod("progsmod_xptracker")) {
             ShipVariantAPI variant = fm.getVariant();
             if (variant.isStockVariant() || variant.isGoalVariant() || variant.isEmptyHullVariant()) {
@@ -314,6 +475,36 @@ public class SModUtils {
             }
             fm.getVariant().addPermaMod("progsmod_xptracker", false);
         }
+        TRACKED_VARIANTS.put(fm.getId(), fm.getVariant());
+    }
+
+    /** Whether [fm] still has the variant that was given a tracker hull mod this session. */
+    private static boolean hasKnownTracker(FleetMemberAPI fm) {
+        return TRACKED_VARIANTS.get(fm.getId()) == fm.getVariant();
+    }
+
+    /** Adds a tracker hull mod to [fm] the next time [attachPendingTrackerHullMods] is called,
+     *  or right away if DEFER_TRACKER_HULL_MOD isn't set. */
+    public static void queueTrackerHullMod(FleetMemberAPI fm) {
+        if (!Constants.DEFER_TRACKER_HULL_MOD) {
+            addTrackerHullMod(fm);
+            return;
+        }
+        if (!hasKnownTracker(fm)) {
+            PENDING_TRACKERS.put(fm.getId(), fm);
+        }
+    }
+
+    /** Adds the tracker hull mods queued up by [queueTrackerHullMod]. */
+    public static void attachPendingTrackerHullMods() {
+        if (PENDING_TRACKERS.isEmpty()) {
+            return;
+        }
+        List<FleetMemberAPI> pending = new ArrayList<>(PENDING_TRACKERS.values());
+        PENDING_TRACKERS.clear();
+        for (FleetMemberAPI fm : pending) {
+            addTrackerHullMod(fm);
+        }
     }
 
     public static void addTrackerHullMod(ShipVariantAPI variant) {
@@ -322,6 +513,96 @@ public class SModUtils {
         }
     }
 
+    /** Starts collecting XP gains to be applied all at once with [XPTransaction.commit]. */
+    public static XPTransaction beginXPTransaction() {
+        return new XPTransaction(true);
+    }
+
+    /** Same as [beginXPTransaction], but for gains that are being replayed from the XP journal,
+     *  which are already in there. */
+    static XPTransaction beginJournalReplay() {
+        return new XPTransaction(false);
+    }
+
+    /** Batch of XP gains for any number of ships. Gains for the same ship are combined, so that
+     *  committing writes each ship's entry in the ship data table, and checks its
+     *  tracker hull mod, only once no matter how many gains it got. */
+    public static class XPTransaction {
+        /** Total XP gained by each ship, in the order the ships first gained XP */
+        private final Map<String, Float> xpGains = new LinkedHashMap<>();
+        /** Ships that should have a tracker hull mod once committed */
+        private final Map<String, FleetMemberAPI> needsTracker = new HashMap<>();
+        private float totalXP = 0f;
+        private boolean committed = false;
+        /** Identifies the battle in the XP journal */
+        private final long battleId = Global.getSector().getClock().getTimestamp();
+        /** Whether to add the gains to the XP journal on commit */
+        private final boolean journal;
+
+        private XPTransaction(boolean journal) {
+            this.journal = journal;
+        }
+
+        /** Adds [xp] XP to [fmId]'s pending gain. */
+        public void add(String fmId, float xp) {
+            if (Float.isNaN(xp)) {
+                return;
+            }
+            Float cur = xpGains.get(fmId);
+            xpGains.put(fmId, cur == null ? xp : cur + xp);
+            totalXP += xp;
+        }
+
+        /** Same as add(fmId, xp) except also adds a tracker hull mod to [fm] on commit
+         *  if it doesn't have one; see [queueTrackerHullMod]. */
+        public void add(FleetMemberAPI fm, float xp) {
+            add(fm.getId(), xp);
+            needsTracker.put(fm.getId(), fm);
+        }
+
+        /** Totals of the XP gains added so far. */
+        public XPSummary getSummary() {
+            int shipCount = 0;
+            for (float xp : xpGains.values()) {
+                if (xp > 0f) {
+                    shipCount++;
+                }
+            }
+            return new XPSummary(totalXP, shipCount);
+        }
+
+        /** Gives every ship its combined XP gain. Returns the totals of everything that was given. */
+        public XPSummary commit() {
+            if (committed) {
+                throw new IllegalStateException("XP transaction has already been committed");
+            }
+            committed = true;
+            for (Map.Entry<String, Float> gain : xpGains.entrySet()) {
+                giveXP(gain.getKey(), gain.getValue());
+                if (journal) {
+                    XPJournal.record(battleId, gain.getKey(), gain.getValue(), "engagement");
+                }
+            }
+            XPJournal.flush();
+            for (FleetMemberAPI fm : needsTracker.values()) {
+                recordHullId(fm);
+                queueTrackerHullMod(fm);
+            }
+            return getSummary();
+        }
+    }
+
+    /** Total XP in an [XPTransaction] and the number of ships that gained a positive amount of it. */
+    public static class XPSummary {
+        public final float totalXP;
+        public final int shipCount;
+
+        private XPSummary(float totalXP, int shipCount) {
+            this.totalXP = totalXP;
+            this.shipCount = shipCount;
+        }
+    }
+
     /** Remove [xp] XP from [fmId]'s entry in the ship data table.
      *  Returns [true] if and only if the operation succeeded. */
     public static boolean spendXP(String fmId, float xp) {
@@ -355,6 +636,9 @@ public class SModUtils {
     /** Removes [fmId] from the ship data table. */
     public static void deleteXPData(String fmId) {
         SHIP_DATA_TABLE.remove(fmId);
+        // Whoever deletes the data usually removes the tracker as well
+        TRACKED_VARIANTS.remove(fmId);
+        PENDING_TRACKERS.remove(fmId);
     }
 
     /** Increases [fleetMember]'s limit of built in hull mods by 1.
@@ -365,6 +649,7 @@ public class SModUtils {
         int cost = getAugmentXPCost(fleetMember);
         if (data == null && cost <= 0f) {
             SHIP_DATA_TABLE.put(fmId, new ShipData(0, 1));
+            recordHullId(fleetMember);
             // S-mod limit increase is applied by the XPTracker hull mod, so add it if needed
             addTrackerHullMod(fleetMember);
             fleetMember.updateStats();
@@ -403,22 +688,91 @@ public class SModUtils {
         }
     }
 
-    /** Gets the story point cost of increasing the number of built-in hullmods of [ship] by 1. */
-    public static AugmentSPCost getAugmentSPCost(FleetMemberAPI ship) {
-        float baseCost;
-        switch (ship.getVariant().getHullSize()) {
-            case FRIGATE: baseCost = Constants.BASE_EXTRA_SMOD_SP_COST_FRIGATE; break;
-            case DESTROYER: baseCost = Constants.BASE_EXTRA_SMOD_SP_COST_DESTROYER; break;
-            case CRUISER: baseCost = Constants.BASE_EXTRA_SMOD_SP_COST_CRUISER; break;
-            case CAPITAL_SHIP: baseCost = Constants.BASE_EXTRA_SMOD_SP_COST_CAPITAL; break;
-            default: baseCost = 0;
+    /** Story point costs of augmenting a ship, indexed by [hullSizeIndex] and then by the number of times
+     *  the ship has already been augmented. Built on first use after the constants are loaded. */
+    private static double[][] augmentSPCostSchedule;
+    /** Exponential growth of the XP cost of augmenting a ship, indexed by the number of times the ship
+     *  has already been augmented. Built along with [augmentSPCostSchedule]. */
+    private static double[] augmentXPGrowthSchedule;
+
+    /** Index of [size] in per-hull-size tables, or -1 for fighters and the like */
+    private static int hullSizeIndex(HullSize size) {
+        switch (size) {
+            case FRIGATE: return 0;
+            case DESTROYER: return 1;
+            case CRUISER: return 2;
+            case CAPITAL_SHIP: return 3;
+            default: return -1;
         }
+    }
 
+    private static float getBaseDP(int sizeIndex) {
+        switch (sizeIndex) {
+            case 0: return Constants.BASE_DP_FRIGATE;
+            case 1: return Constants.BASE_DP_DESTROYER;
+            case 2: return Constants.BASE_DP_CRUISER;
+            default: return Constants.BASE_DP_CAPITAL;
+        }
+    }
+
+    private static float getBaseAugmentSPCost(int sizeIndex) {
+        switch (sizeIndex) {
+            case 0: return Constants.BASE_EXTRA_SMOD_SP_COST_FRIGATE;
+            case 1: return Constants.BASE_EXTRA_SMOD_SP_COST_DESTROYER;
+            case 2: return Constants.BASE_EXTRA_SMOD_SP_COST_CRUISER;
+            default: return Constants.BASE_EXTRA_SMOD_SP_COST_CAPITAL;
+        }
+    }
+
+    private static float getBaseAugmentXPCost(int sizeIndex) {
+        switch (sizeIndex) {
+            case 0: return Constants.BASE_EXTRA_SMOD_XP_COST_FRIGATE;
+            case 1: return Constants.BASE_EXTRA_SMOD_XP_COST_DESTROYER;
+            case 2: return Constants.BASE_EXTRA_SMOD_XP_COST_CRUISER;
+            default: return Constants.BASE_EXTRA_SMOD_XP_COST_CAPITAL;
+        }
+    }
+
+    private static double computeAugmentSPCost(float baseCost, int nOverLimit) {
+        return Constants.EXTRA_SMOD_SP_COST_GROWTHTYPE == GrowthType.EXPONENTIAL ?
+            baseCost * Math.pow(Constants.EXTRA_SMOD_SP_COST_GROWTHFACTOR, nOverLimit) :
+            baseCost + nOverLimit * Constants.EXTRA_SMOD_SP_COST_GROWTHFACTOR;
+    }
+
+    private static void buildAugmentCostSchedules() {
+        int n = Math.max(0, Constants.AUGMENT_COST_SCHEDULE_SIZE);
+        double[][] spSchedule = new double[4][n];
+        for (int size = 0; size < 4; size++) {
+            for (int i = 0; i < n; i++) {
+                spSchedule[size][i] = computeAugmentSPCost(getBaseAugmentSPCost(size), i);
+            }
+        }
+        double[] xpGrowthSchedule = new double[n];
+        for (int i = 0; i < n; i++) {
+            xpGrowthSchedule[i] = Math.pow(Constants.EXTRA_SMOD_XP_COST_GROWTHFACTOR, i);
+        }
+        augmentSPCostSchedule = spSchedule;
+        augmentXPGrowthSchedule = xpGrowthSchedule;
+    }
+
+    /** Gets the story point cost of increasing the number of built-in hullmods of [ship] by 1. */
+    public static AugmentSPCost getAugmentSPCost(FleetMemberAPI ship) {
+        int sizeIndex = hullSizeIndex(ship.getVariant().getHullSize());
         int modsOverLimit = getNumOverLimit(ship.getId());
 
-        double spCost = Constants.EXTRA_SMOD_SP_COST_GROWTHTYPE == GrowthType.EXPONENTIAL ?
-            baseCost * Math.pow(Constants.EXTRA_SMOD_SP_COST_GROWTHFACTOR, modsOverLimit) :
-            baseCost + modsOverLimit * Constants.EXTRA_SMOD_SP_COST_GROWTHFACTOR;
+        double spCost;
+        if (sizeIndex < 0) {
+            spCost = computeAugmentSPCost(0f, modsOverLimit);
+        }
+        else {
+            if (augmentSPCostSchedule == null) {
+                buildAugmentCostSchedules();
+            }
+            double[] schedule = augmentSPCostSchedule[sizeIndex];
+            spCost = modsOverLimit >= 0 && modsOverLimit < schedule.length ?
+                schedule[modsOverLimit] :
+                computeAugmentSPCost(getBaseAugmentSPCost(sizeIndex), modsOverLimit);
+        }
 
         // If augment would cost 0.75 SP, round up to 1 SP but grant 25% bonus XP to effectively refund 0.25 SP
         // Vanilla does the same thing with S-mods; E.g. building a mod into a frigate gives 75% bonus XP
@@ -436,53 +790,54 @@ public class SModUtils {
     /** Gets the XP cost of increasing the number of buit-in hullmods by 1,
      *  when this option has already been used [nOverLimit] times. */
     public static int getAugmentXPCost(FleetMemberAPI fleetMember, int nOverLimit) {
-        float baseCost;
-        float deploymentCost = fleetMember.getUnmodifiedDeploymentPointsCost();
-        switch (fleetMember.getVariant().getHullSize()) {
-            case FRIGATE: baseCost = Constants.BASE_EXTRA_SMOD_XP_COST_FRIGATE * deploymentCost / Constants.BASE_DP_FRIGATE; break;
-            case DESTROYER: baseCost = Constants.BASE_EXTRA_SMOD_XP_COST_DESTROYER * deploymentCost / Constants.BASE_DP_DESTROYER; break;
-            case CRUISER: baseCost = Constants.BASE_EXTRA_SMOD_XP_COST_CRUISER * deploymentCost / Constants.BASE_DP_CRUISER; break;
-            case CAPITAL_SHIP: baseCost = Constants.BASE_EXTRA_SMOD_XP_COST_CAPITAL * deploymentCost / Constants.BASE_DP_CAPITAL; break;
-            default: baseCost = 0;
+        int sizeIndex = hullSizeIndex(fleetMember.getVariant().getHullSize());
+        if (sizeIndex < 0) {
+            return 0;
         }
-
-        return Constants.EXTRA_SMOD_XP_COST_GROWTHTYPE == GrowthType.EXPONENTIAL ? 
-            (int) (baseCost * Math.pow(Constants.EXTRA_SMOD_XP_COST_GROWTHFACTOR, nOverLimit)) : 
-            (int) (baseCost + nOverLimit * baseCost * Constants.EXTRA_SMOD_XP_COST_GROWTHFACTOR);
+        float baseCost = getBaseAugmentXPCost(sizeIndex) * fleetMember.getUnmodifiedDeploymentPointsCost()
+            / getBaseDP(sizeIndex);
+        if (Constants.EXTRA_SMOD_XP_COST_GROWTHTYPE != GrowthType.EXPONENTIAL) {
+            return (int) (baseCost + nOverLimit * baseCost * Constants.EXTRA_SMOD_XP_COST_GROWTHFACTOR);
+        }
+        if (augmentXPGrowthSchedule == null) {
+            buildAugmentCostSchedules();
+        }
+        double[] schedule = augmentXPGrowthSchedule;
+        double growth = nOverLimit >= 0 && nOverLimit < schedule.length ?
+            schedule[nOverLimit] :
+            Math.pow(Constants.EXTRA_SMOD_XP_COST_GROWTHFACTOR, nOverLimit);
+        return (int) (baseCost * growth);
     }
 
+    /** For each hull size, maps hull mod ids to the part of their build-in cost that doesn't depend
+     *  on the ship's deployment cost. Cleared whenever the constants are reloaded. */
+    private static final StringFloatMap[] BUILD_IN_COST_CACHE = {
+        new StringFloatMap(), new StringFloatMap(), new StringFloatMap(), new StringFloatMap()
+    };
+
     /** Gets the XP cost of building in a certain hullmod */
     public static int getBuildInCost(HullModSpecAPI hullMod, HullSize size, float deploymentCost) {
-        float cost, mult;
+        int sizeIndex = hullSizeIndex(size);
+        if (sizeIndex < 0) {
+            return 0;
+        }
+        StringFloatMap cache = BUILD_IN_COST_CACHE[sizeIndex];
+        float cost = cache.get(hullMod.getId(), Float.NaN);
+        if (Float.isNaN(cost)) {
+            cost = computeBuildInCostPolynomial(hullMod, size);
+            cache.put(hullMod.getId(), cost);
+        }
+        return (int) Math.max(0f, cost * (deploymentCost / getBaseDP(sizeIndex)));
+    }
+
+    private static float computeBuildInCostPolynomial(HullModSpecAPI hullMod, HullSize size) {
         switch (size) {
-            case FRIGATE: 
-                cost = computePolynomial(hullMod.getFrigateCost(), Constants.XP_COST_COEFF_FRIGATE);
-                mult = deploymentCost / Constants.BASE_DP_FRIGATE;
-                break;
-            case DESTROYER:
-                cost = computePolynomial(hullMod.getDestroyerCost(), Constants.XP_COST_COEFF_DESTROYER);
-                mult = deploymentCost / Constants.BASE_DP_DESTROYER; 
-                break;
-            case CRUISER:
-                cost = computePolynomial(hullMod.getCruiserCost(), Constants.XP_COST_COEFF_CRUISER);
-                mult = deploymentCost / Constants.BASE_DP_CRUISER; 
-                break;
-            case CAPITAL_SHIP:
-                cost = computePolynomial(hullMod.getCapitalCost(), Constants.XP_COST_COEFF_CAPITAL); 
-                mult = deploymentCost / Constants.BASE_DP_CAPITAL;
-                break;
-            default: return 0;
-        }
-        return (int) Math.max(0f, cost * mult);
-    }
-
-    /** Given a list of fleetMembers, return a list of their ids */
-    public static List<String> getFleetMemberIds(List<FleetMemberAPI> fleetMembers) {
-        List<String> ids = new ArrayList<>(fleetMembers.size());
-        for (FleetMemberAPI fm : fleetMembers) {
-            ids.add(fm.getId());
-        }
-        return ids; 
+            case FRIGATE: return computePolynomial(hullMod.getFrigateCost(), Constants.XP_COST_COEFF_FRIGATE);
+            case DESTROYER: return computePolynomial(hullMod.getDestroyerCost(), Constants.XP_COST_COEFF_DESTROYER);
+            case CRUISER: return computePolynomial(hullMod.getCruiserCost(), Constants.XP_COST_COEFF_CRUISER);
+            case CAPITAL_SHIP: return computePolynomial(hullMod.getCapitalCost(), Constants.XP_COST_COEFF_CAPITAL);
+            default: return 0f;
+        }
     }
 
     /** For when a ship has an increased s-mod limit from another source.
@@ -594,14 +949,16 @@ public class SModUtils {
     }
 
     /** Creates the text "The [fleetMember] gained [xp] xp [additionalText]: ",
-     *  followed by a breakdown of ATTACK, DEFENSE, and SUPPORT XP gain amounts. */
-    public static void addTypedXPGainToDialog(InteractionDialogAPI dialog, FleetMemberAPI fleetMember, Map<ContributionType, Float> xp, String additionalText) {
+     *  followed by a breakdown of ATTACK, DEFENSE, and SUPPORT XP gain amounts.
+     *  The XP gained of each type is at xp[offset + type.ordinal()]. */
+    public static void addTypedXPGainToDialog(InteractionDialogAPI dialog, FleetMemberAPI fleetMember, float[] xp, int offset, String additionalText) {
         if (dialog == null || dialog.getTextPanel() == null) {
             return;
         }
+        ContributionType[] types = ContributionType.values();
         float totalXPFloat = 0f;
-        for (float partXP : xp.values()) {
-            totalXPFloat += partXP;
+        for (int i = 0; i < types.length; i++) {
+            totalXPFloat += xp[offset + i];
         }
         int totalXP = Math.round(totalXPFloat);
         if (totalXP <= 0) {
@@ -617,11 +974,15 @@ public class SModUtils {
         sb.append(String.format("%s gained %s XP %s:", hullSpec.getHullNameWithDashClass(), totalXPFmt, additionalText));
         highlights.add(hullSpec.getHullName());
         highlights.add(totalXPFmt);
-        for (Map.Entry<ContributionType, Float> partXP : xp.entrySet()) {
+        for (ContributionType type : types) {
+            float partXP = xp[offset + type.ordinal()];
+            if (partXP <= 0f) {
+                continue;
+            }
             sb.append("\n    - ");
-            int part = Math.round(partXP.getValue());
+            int part = Math.round(partXP);
             String partFmt = Misc.getFormat().format(part);
-            switch (partXP.getKey()) {
+            switch (type) {
                 case ATTACK: 
                     sb.append(partFmt).append(" XP gained from offensive actions");
                     break;
@@ -0,0 +1,112 @@
+package util;
+
+import java.util.Map;
+
+import util.SModUtils.ShipData;
+import util.SModUtils.ShipDataTable;
+
+/** Packs a [ShipDataTable] into a single string, so that the save file stores one string
+ *  instead of an object graph with field names for every ship. The format is
+ *    PSMSD<version>:<entry count>:<entry><entry>...
+ *  where each entry is
+ *    <id length>:<id><hull id length>:<hull id><xp>,<xp spent on increasing limit>,<perma mods over limit>,<flags>;
+ *  The hull id is empty if unknown. Version 1 didn't have the hull id.
+ *  Flag bit 0 is [ShipData.initialSModsAccountedFor]. */
+public class ShipDataCodec {
+
+    private static final String HEADER = "PSMSD";
+    public static final int VERSION = 2;
+
+    private static final int FLAG_INITIAL_SMODS_ACCOUNTED_FOR = 1;
+
+    public static String encode(ShipDataTable table) {
+        StringBuilder sb = new StringBuilder(32 + table.size() * 48);
+        sb.append(HEADER).append(VERSION).append(':').append(table.size()).append(':');
+        for (Map.Entry<String, ShipData> entry : table.entrySet()) {
+            String id = entry.getKey();
+            ShipData data = entry.getValue();
+            int flags = data.initialSModsAccountedFor ? FLAG_INITIAL_SMODS_ACCOUNTED_FOR : 0;
+            String hullId = data.hullId == null ? "" : data.hullId;
+            sb.append(id.length()).append(':').append(id)
+              .append(hullId.length()).append(':').append(hullId)
+              .append(data.xp).append(',')
+              .append(data.xpSpentOnIncreasingLimit).append(',')
+              .append(data.permaModsOverLimit).append(',')
+              .append(flags).append(';');
+        }
+        return sb.toString();
+    }
+
+    /** Inverse of [encode]. Throws IllegalArgumentException if [packed] isn't in a known format. */
+    public static ShipDataTable decode(String packed) {
+        if (!packed.startsWith(HEADER)) {
+            throw new IllegalArgumentException("Not packed ship data");
+        }
+        Reader reader = new Reader(packed, HEADER.length());
+        int version = reader.readInt(':');
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported packed ship data version: " + version);
+        }
+        int count = reader.readInt(':');
+        ShipDataTable table = new ShipDataTable();
+        for (int i = 0; i < count; i++) {
+            int idLength = reader.readInt(':');
+            String id = reader.read(idLength);
+            String hullId = null;
+            if (version >= 2) {
+                hullId = reader.read(reader.readInt(':'));
+                if (hullId.isEmpty()) {
+                    hullId = null;
+                }
+            }
+            float xp = reader.readFloat(',');
+            float xpSpentOnIncreasingLimit = reader.readFloat(',');
+            int permaModsOverLimit = reader.readInt(',');
+            int flags = reader.readInt(';');
+            ShipData data = new ShipData(xp, permaModsOverLimit);
+            data.xpSpentOnIncreasingLimit = xpSpentOnIncreasingLimit;
+            data.initialSModsAccountedFor = (flags & FLAG_INITIAL_SMODS_ACCOUNTED_FOR) != 0;
+            data.hullId = hullId;
+            table.put(id, data);
+        }
+        return table;
+    }
+
+    private static class Reader {
+        private final String text;
+        private int pos;
+
+        private Reader(String text, int pos) {
+            this.text = text;
+            this.pos = pos;
+        }
+
+        /** Reads up to the next [terminator] and skips over it. */
+        private String readUntil(char terminator) {
+            int end = text.indexOf(terminator, pos);
+            if (end < 0) {
+                throw new IllegalArgumentException("Truncated packed ship data");
+            }
+            String token = text.substring(pos, end);
+            pos = end + 1;
+            return token;
+        }
+
+        private String read(int length) {
+            if (pos + length > text.length()) {
+                throw new IllegalArgumentException("Truncated packed ship data");
+            }
+            String token = text.substring(pos, pos + length);
+            pos += length;
+            return token;
+        }
+
+        private int readInt(char terminator) {
+            return Integer.parseInt(readUntil(terminator));
+        }
+
+        private float readFloat(char terminator) {
+            return Float.parseFloat(readUntil(terminator));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Map from strings to primitive floats, using open addressing with linear probing so that
+ *  values aren't boxed and increments update the value in place with a single lookup.
+ *  Keys can't be null. */
+public class StringFloatMap {
+
+    private String[] keys;
+    private float[] values;
+    private int size = 0;
+
+    public StringFloatMap() {
+        this(16);
+    }
+
+    public StringFloatMap(int expectedSize) {
+        int capacity = 4;
+        // Keep the load factor at most 1/2
+        while (capacity < 2 * expectedSize) {
+            capacity *= 2;
+        }
+        keys = new String[capacity];
+        values = new float[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(String key) {
+        return keys[slot(key)] != null;
+    }
+
+    /** Returns the value for [key], or [defaultValue] if there is none. */
+    public float get(String key, float defaultValue) {
+        int slot = slot(key);
+        return keys[slot] == null ? defaultValue : values[slot];
+    }
+
+    public void put(String key, float value) {
+        int slot = slot(key);
+        if (keys[slot] == null) {
+            slot = insert(key, slot);
+        }
+        values[slot] = value;
+    }
+
+    /** Adds [delta] to the value for [key], treating a missing value as 0. Returns the new value. */
+    public float add(String key, float delta) {
+        int slot = slot(key);
+        if (keys[slot] == null) {
+            slot = insert(key, slot);
+        }
+        return values[slot] += delta;
+    }
+
+    /** Subtracts [amount] from the value for [key] if it's at least [amount].
+     *  Returns whether it was subtracted. */
+    public boolean take(String key, float amount) {
+        int slot = slot(key);
+        if (keys[slot] == null || values[slot] < amount) {
+            return false;
+        }
+        values[slot] -= amount;
+        return true;
+    }
+
+    /** Removes [key]. Returns whether it was there. */
+    public boolean remove(String key) {
+        int slot = slot(key);
+        if (keys[slot] == null) {
+            return false;
+        }
+        keys[slot] = null;
+        values[slot] = 0f;
+        size--;
+        // Move back any later entries of the same probe run that can now sit closer to their home slot
+        int mask = keys.length - 1;
+        int empty = slot;
+        for (int i = (slot + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+            int home = keys[i].hashCode() & mask;
+            // Skip entries whose home slot lies cyclically in (empty, i]
+            boolean stays = empty <= i ? (home > empty && home <= i) : (home > empty || home <= i);
+            if (stays) {
+                continue;
+            }
+            keys[empty] = keys[i];
+            values[empty] = values[i];
+            keys[i] = null;
+            values[i] = 0f;
+            empty = i;
+        }
+        return true;
+    }
+
+    public void clear() {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = null;
+            values[i] = 0f;
+        }
+        size = 0;
+    }
+
+    /** Returns a copy of the keys, in no particular order. */
+    public List<String> keys() {
+        List<String> result = new ArrayList<>(size);
+        for (String key : keys) {
+            if (key != null) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the slot that holds [key], or the empty slot where it would go. */
+    private int slot(String key) {
+        int mask = keys.length - 1;
+        int i = key.hashCode() & mask;
+        while (keys[i] != null && !keys[i].equals(key)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** Puts [key] into the empty [slot], growing the table if needed. Returns [key]'s slot. */
+    private int insert(String key, int slot) {
+        if (2 * (size + 1) > keys.length) {
+            grow();
+            slot = slot(key);
+        }
+        keys[slot] = key;
+        size++;
+        return slot;
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        float[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        values = new float[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
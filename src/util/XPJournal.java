@@ -0,0 +1,180 @@
+package util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fs.starfarer.api.Global;
+import com.fs.starfarer.api.campaign.CampaignFleetAPI;
+import com.fs.starfarer.api.fleet.FleetMemberAPI;
+import com.fs.starfarer.api.util.Misc;
+
+/** Optional record of the XP that ships gained in engagements since the game was last saved,
+ *  kept in the common storage file [FILE_NAME] so that it survives the game crashing before
+ *  the next save. When a save is loaded and the journal continues from exactly that save, and
+ *  was written by an earlier run of the game, its entries are given to the ships again. Loading
+ *  a save again in the same run means the player chose to abandon that progress, so the journal
+ *  is emptied instead. The game doesn't tell mods when it's closed, so quitting to the desktop
+ *  without saving can't be told apart from a crash, and also gets the XP back on the next start.
+ *  The journal is also emptied after every save, since the save then contains everything in it.
+ *  Only engagement XP is journaled: XP spent in dialogs goes along with changes to the ships
+ *  themselves, which a crash would lose as well.
+ *  The file starts with the line
+ *    PSMJ3 <campaign id> <save id> <session id>
+ *  where the session id identifies the run of the game that wrote it,
+ *  followed by one line per entry:
+ *    <sequence number> <battle id> <fleet member id> <xp delta> <reason> */
+public class XPJournal {
+
+    public static final String FILE_NAME = "progsmod_xp_journal";
+    private static final String HEADER = "PSMJ3";
+    /** Identifies this run of the game */
+    private static final String SESSION_ID = Misc.genUID();
+
+    /** Campaign and save that the journal continues from; [campaignId] is null if no save is loaded,
+     *  and [saveId] if the campaign hasn't been saved with this mod yet */
+    private static String campaignId;
+    private static String saveId;
+    private static final StringBuilder entries = new StringBuilder();
+    private static long nextSequence = 0;
+    private static boolean dirty = false;
+
+    /** Starts journaling for the save that was just loaded, identified by [campaignId] and [saveId].
+     *  If the journal on disk continues from that save and was left behind by an earlier run of the game,
+     *  gives its XP back to the ships and keeps its entries. Returns the number of entries that were replayed. */
+    public static int open(String campaignId, String saveId) {
+        XPJournal.campaignId = campaignId;
+        XPJournal.saveId = saveId;
+        entries.setLength(0);
+        nextSequence = 0;
+        dirty = false;
+        if (!SModUtils.Constants.XP_JOURNAL) {
+            return 0;
+        }
+        String journal;
+        try {
+            journal = Global.getSettings().readTextFileFromCommon(FILE_NAME);
+        }
+        catch (IOException e) {
+            return 0;
+        }
+        if (journal == null || journal.isEmpty()) {
+            return 0;
+        }
+        String[] lines = journal.split("\n");
+        String[] header = lines[0].trim().split(" ");
+        // Journal for a different campaign or save; whatever is in there doesn't apply to this one
+        if (header.length != 4 || !header[0].equals(HEADER) || !header[1].equals(campaignId)
+                || !header[2].equals(String.valueOf(saveId))) {
+            return 0;
+        }
+        // Written earlier in this run, so the save is being loaded again on purpose, e.g. after a lost
+        // battle. The journaled XP belongs to the progress that's being thrown away.
+        if (header[3].equals(SESSION_ID)) {
+            write();
+            return 0;
+        }
+        List<String> fmIds = new ArrayList<>();
+        List<Float> deltas = new ArrayList<>();
+        for (int i = 1; i < lines.length; i++) {
+            String[] fields = lines[i].trim().split(" ");
+            if (fields.length < 5) {
+                continue;
+            }
+            try {
+                long sequence = Long.parseLong(fields[0]);
+                deltas.add(Float.parseFloat(fields[3]));
+                fmIds.add(fields[2]);
+                entries.append(lines[i].trim()).append('\n');
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            }
+            catch (NumberFormatException e) {
+                // Probably cut off by the crash; skip it
+            }
+        }
+        replay(fmIds, deltas);
+        // Claim the journal for this run, so that loading the save again doesn't replay it again
+        write();
+        if (!fmIds.isEmpty()) {
+            Global.getLogger(XPJournal.class).info(
+                    String.format("Replayed %d XP journal entries not in the save", fmIds.size()));
+        }
+        return fmIds.size();
+    }
+
+    /** Gives [deltas] XP to the ships with ids [fmIds] the same way the engagement did, so that ships
+     *  still in the player's fleet get their hull recorded and a tracker hull mod too. */
+    private static void replay(List<String> fmIds, List<Float> deltas) {
+        Map<String, FleetMemberAPI> fleetMembers = new HashMap<>();
+        CampaignFleetAPI playerFleet = Global.getSector().getPlayerFleet();
+        if (playerFleet != null) {
+            for (FleetMemberAPI fm : playerFleet.getFleetData().getMembersListCopy()) {
+                fleetMembers.put(fm.getId(), fm);
+            }
+        }
+        SModUtils.XPTransaction transaction = SModUtils.beginJournalReplay();
+        for (int i = 0; i < fmIds.size(); i++) {
+            FleetMemberAPI fm = fleetMembers.get(fmIds.get(i));
+            if (fm != null) {
+                transaction.add(fm, deltas.get(i));
+            }
+            else {
+                transaction.add(fmIds.get(i), deltas.get(i));
+            }
+        }
+        transaction.commit();
+    }
+
+    /** Adds an entry for [fmId] gaining [delta] XP in the battle with id [battleId]. Call [flush] to write it out. */
+    public static void record(long battleId, String fmId, float delta, String reason) {
+        if (!SModUtils.Constants.XP_JOURNAL || campaignId == null) {
+            return;
+        }
+        entries.append(nextSequence++).append(' ')
+               .append(battleId).append(' ')
+               .append(fmId).append(' ')
+               .append(delta).append(' ')
+               .append(reason).append('\n');
+        dirty = true;
+    }
+
+    /** Writes the journal out if anything was recorded since the last write. */
+    public static void flush() {
+        if (!dirty) {
+            return;
+        }
+        write();
+        dirty = false;
+    }
+
+    /** Empties the journal after the game was saved as [newSaveId]. */
+    public static void compact(String newSaveId) {
+        if (campaignId == null) {
+            return;
+        }
+        boolean hadEntries = entries.length() > 0;
+        saveId = newSaveId;
+        entries.setLength(0);
+        nextSequence = 0;
+        dirty = false;
+        // Only touch the file if there's a journal to invalidate
+        if (SModUtils.Constants.XP_JOURNAL || hadEntries) {
+            write();
+        }
+    }
+
+    private static String header() {
+        return HEADER + " " + campaignId + " " + saveId + " " + SESSION_ID;
+    }
+
+    private static void write() {
+        try {
+            Global.getSettings().writeTextFileToCommon(FILE_NAME, header() + "\n" + entries);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}